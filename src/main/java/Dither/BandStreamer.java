@@ -0,0 +1,462 @@
+package Dither;
+
+import Dither.Util.Histogram;
+import Dither.Util.LuminanceRangeCalculator;
+import Dither.Util.ParallelExecutor;
+import Dither.Util.RasterAccess;
+import Dither.Util.SegmentImage;
+import Dither.Util.TYPE;
+import Dither.Interface.ColorQuantizer;
+
+import FileManager.BandReader;
+import FileManager.PngEncoder;
+import FileManager.PngReader;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Runs a Pipeline's stages on one band of rows at a time, from the decoder
+ * straight into the PNG encoder, so that images larger than the heap can be
+ * dithered: only a band of the reduced image and a row of the output are
+ * held, O(width × BAND_ROWS) whatever the height.
+ *
+ * Error diffusion keeps a single engine for the whole image, whose rolling
+ * error rows carry the error of the last rows of a band into the next one,
+ * and Bayer bands start on a multiple of the matrix size, so the result is
+ * the same as dithering the whole image at once. Range quantization needs
+ * the range before the first band is dithered, and grayscale whether an
+ * image with alpha is opaque, so those read the file twice: once to scan
+ * it, band by band too, then to dither.
+ *
+ * Images stored in a SegmentImage, too large for a BufferedImage, are
+ * dithered the same way, each band copied out of the segment and back.
+ */
+class BandStreamer {
+    /**
+     * Rows per band, a multiple of the Bayer matrix size.
+     */
+    static final int BAND_ROWS = 256;
+
+    private final Pipeline pipeline;
+    private final ColorQuantizer quantizer;
+    private final int colorLevels;
+    private final int scale;
+    private final double spread;
+    private final boolean rangeQ;
+    private final boolean useHsb;
+    private final TYPE operation;
+    private final boolean grayscale;
+    private final int threads;
+    private final int bayerDitherSize;
+
+    BandStreamer(Pipeline pipeline, ColorQuantizer quantizer, int colorLevels, int scale, double spread, boolean rangeQ,
+            boolean useHsb, TYPE operation, boolean grayscale, int threads, int bayerDitherSize) {
+        this.pipeline = pipeline;
+        this.quantizer = quantizer;
+        this.colorLevels = colorLevels;
+        this.scale = scale;
+        this.spread = spread;
+        this.rangeQ = rangeQ;
+        this.useHsb = useHsb;
+        this.operation = operation;
+        this.grayscale = grayscale;
+        this.threads = threads;
+        this.bayerDitherSize = bayerDitherSize;
+    }
+
+    /**
+     * Dithers the file band by band and writes it as a PNG, enlarged back by
+     * the scale factor.
+     *
+     * @param reader the file, positioned at its first row
+     * @param scan the result of scan, or null if it was not needed
+     * @param out the stream to write to, left open
+     * @param encoder the encoder to write with
+     * @throws IOException if reading or writing fails
+     */
+    void stream(BandReader reader, Scan scan, OutputStream out, PngEncoder encoder) throws IOException {
+        boolean alpha = reader.hasAlpha() && (scan == null || !scan.opaque());
+        int width = reader.getWidth();
+        int height = reader.getHeight();
+
+        BandDitherer ditherer = null;
+        PngEncoder.Stream png = null;
+        OutputRow row = null;
+
+        BufferedImage band;
+        int y = 0;
+
+        while ((band = reader.next(BAND_ROWS)) != null) {
+            BufferedImage image = grayscale(band, alpha);
+
+            if (png == null) {
+                ditherer = new BandDitherer(width, height, scan != null ? scan.range() : null, image);
+
+                PngEncoder.Format format = RasterAccess.isGray(image)
+                        ? PngEncoder.Format.GRAY
+                        : (reader.hasAlpha() ? PngEncoder.Format.RGBA : PngEncoder.Format.RGB);
+
+                png = encoder.open(out, width * scale, height * scale, format, null);
+                row = new OutputRow(png, width, scale);
+            }
+
+            ditherer.dither(image, y);
+            row.write(image);
+            y += image.getHeight();
+        }
+
+        png.finish();
+    }
+
+    /**
+     * Decodes the file into a segment image, converted to grayscale if
+     * enabled. Gray pixels are stored as ARGB like every other.
+     *
+     * @param reader the file, positioned at its first row
+     * @param image an image of the reader's size
+     * @throws IOException if reading fails
+     */
+    void load(BandReader reader, SegmentImage image) throws IOException {
+        int width = reader.getWidth();
+        int[] argb = null;
+
+        BufferedImage band;
+        int y = 0;
+
+        while ((band = reader.next(BAND_ROWS)) != null) {
+            BufferedImage converted = grayscale ? new PngReader().toGrayscaleArgb(band) : band;
+            int rows = converted.getHeight();
+            int[] pixels = RasterAccess.getPackedPixels(converted);
+
+            if (pixels == null) {
+                // Gray bytes are used as they are, like the gray row methods do
+                if (argb == null || argb.length != rows * width) {
+                    argb = new int[rows * width];
+                }
+
+                byte[] gray = RasterAccess.getGrayPixels(converted);
+
+                for (int i = 0; i < rows * width; i++) {
+                    argb[i] = gray != null
+                            ? 0xFF000000 | (gray[i] & 0xFF) * 0x010101
+                            : converted.getRGB(i % width, i / width);
+                }
+
+                pixels = argb;
+            }
+
+            image.writeRows(y, rows, pixels, 0);
+            y += rows;
+        }
+    }
+
+    /**
+     * Measures the range and dithers a segment image in place, band by band.
+     *
+     * @param image the image to dither
+     * @return the range used, or null without range quantization
+     */
+    double[] dither(SegmentImage image) {
+        double[] range = rangeQ ? measure(image) : null;
+
+        BandDitherer ditherer = null;
+        BufferedImage band = null;
+
+        for (int y = 0; y < image.getHeight(); y += BAND_ROWS) {
+            band = read(image, y, band);
+
+            if (ditherer == null) {
+                ditherer = new BandDitherer(image.getWidth(), image.getHeight(), range, band);
+            }
+
+            ditherer.dither(band, y);
+
+            image.writeRows(y, band.getHeight(), RasterAccess.getPackedPixels(band), 0);
+        }
+
+        return range;
+    }
+
+    /**
+     * Writes a segment image as a PNG, enlarged back by the scale factor.
+     *
+     * @param image the dithered image
+     * @param out the stream to write to, left open
+     * @param encoder the encoder to write with
+     * @throws IOException if writing fails
+     */
+    void encode(SegmentImage image, OutputStream out, PngEncoder encoder) throws IOException {
+        PngEncoder.Format format = image.hasAlpha() ? PngEncoder.Format.RGBA : PngEncoder.Format.RGB;
+        PngEncoder.Stream png = encoder.open(out, image.getWidth() * scale, image.getHeight() * scale, format, null);
+        OutputRow row = new OutputRow(png, image.getWidth(), scale);
+
+        BufferedImage band = null;
+
+        for (int y = 0; y < image.getHeight(); y += BAND_ROWS) {
+            band = read(image, y, band);
+
+            row.write(band);
+        }
+
+        png.finish();
+    }
+
+    private double[] measure(SegmentImage image) {
+        RangeCounter counter = new RangeCounter();
+        BufferedImage band = null;
+
+        for (int y = 0; y < image.getHeight(); y += BAND_ROWS) {
+            band = read(image, y, band);
+
+            counter.add(band);
+        }
+
+        return counter.range();
+    }
+
+    // The band of a segment image starting at row y, in the previous band if
+    // it has the same height
+    private static BufferedImage read(SegmentImage image, int y, BufferedImage previous) {
+        int rows = Math.min(BAND_ROWS, image.getHeight() - y);
+        BufferedImage band = previous != null && previous.getHeight() == rows
+                ? previous
+                : new BufferedImage(image.getWidth(), rows, BufferedImage.TYPE_INT_ARGB);
+
+        image.readRows(y, rows, RasterAccess.getPackedPixels(band), 0);
+
+        return band;
+    }
+
+    /**
+     * What has to be known about the whole file before the first band is
+     * dithered: the range for range quantization, and for grayscale whether
+     * an image with an alpha channel is in fact opaque, in which case
+     * PngReader turns it into gray bytes.
+     *
+     * @param range [min, max], or null without range quantization
+     * @param opaque whether every pixel is opaque
+     */
+    record Scan(double[] range, boolean opaque) { }
+
+    /**
+     * @param reader the file about to be streamed
+     * @return whether scan must read the file first
+     */
+    boolean needsScan(BandReader reader) {
+        return rangeQ || (grayscale && reader.hasAlpha());
+    }
+
+    /**
+     * Reads every band of the file to measure what stream needs ahead.
+     *
+     * @param reader the file, positioned at its first row
+     * @return the range over the whole reduced image, the same as
+     * Pipeline.analyze, and its opacity
+     * @throws IOException if reading fails
+     */
+    Scan scan(BandReader reader) throws IOException {
+        RangeCounter counter = new RangeCounter();
+        boolean opaque = true;
+
+        BufferedImage band;
+
+        while ((band = reader.next(BAND_ROWS)) != null) {
+            if (reader.hasAlpha()) {
+                opaque &= isOpaque(band);
+            }
+
+            // Gray ARGB pixels fall in the same bins as the gray bytes the
+            // band would become if the image turns out opaque
+            if (rangeQ) {
+                counter.add(grayscale(band, reader.hasAlpha()));
+            }
+        }
+
+        return new Scan(rangeQ ? counter.range() : null, opaque);
+    }
+
+    // Every band must convert to the same type: opaque images to gray bytes
+    // as PngReader does, images with transparent pixels to ARGB even in
+    // bands that happen to be opaque
+    private BufferedImage grayscale(BufferedImage band, boolean alpha) {
+        if (!grayscale) {
+            return band;
+        }
+
+        return alpha ? new PngReader().toGrayscaleArgb(band) : pipeline.grayscale(band);
+    }
+
+    private static boolean isOpaque(BufferedImage band) {
+        int width = band.getWidth();
+        int[] row = new int[width];
+
+        for (int y = 0; y < band.getHeight(); y++) {
+            band.getRGB(0, y, width, 1, row, 0, width);
+
+            for (int argb : row) {
+                if ((argb >>> 24) != 0xFF) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    private boolean isDiffusion() {
+        return operation != TYPE.Simple && operation != TYPE.Bayer8x8;
+    }
+
+    /**
+     * Dithers the bands of one image, in order from the top, with state that
+     * lasts across bands: the quantizer's range and the error diffusion
+     * engine.
+     */
+    private class BandDitherer {
+        private final ParallelExecutor executor = new ParallelExecutor(threads);
+        private final DiffusionDithering diffusion;
+        private final OrderedDithering ordered;
+        private final ErrorDiffusionEngine engine;
+
+        BandDitherer(int width, int height, double[] range, BufferedImage first) {
+            quantizer.setRange(range);
+
+            // The fixed range still has to be turned into the quantizer's
+            // tables, any band will do
+            if (rangeQ) {
+                quantizer.prepare(first, colorLevels);
+            }
+
+            this.diffusion = isDiffusion()
+                    ? new DiffusionDithering(quantizer, colorLevels, rangeQ, spread, threads)
+                    : null;
+            this.ordered = operation == TYPE.Bayer8x8
+                    ? new OrderedDithering(quantizer, bayerDitherSize, colorLevels, rangeQ, spread)
+                    : null;
+            this.engine = diffusion != null ? diffusion.engine(diffusion.kernel(operation), width, height) : null;
+        }
+
+        void dither(BufferedImage band, int y) {
+            if (diffusion != null) {
+                diffusion.ditherRows(engine, band, y);
+            } else if (ordered != null) {
+                ordered.applyDither(band, executor);
+            } else {
+                quantizer.quantizeImage(band, colorLevels, rangeQ, executor);
+            }
+        }
+    }
+
+    /**
+     * Adds up the histograms of bands into the range of the whole image.
+     */
+    private class RangeCounter {
+        private final long[] counts = new long[LuminanceRangeCalculator.BINS];
+        private final double[] values = new double[LuminanceRangeCalculator.BINS];
+
+        void add(BufferedImage band) {
+            Histogram histogram = LuminanceRangeCalculator.histogram(band, useHsb);
+
+            for (int i = 0; i < histogram.bins(); i++) {
+                counts[i] += histogram.count(i);
+                values[i] = histogram.value(i);
+            }
+        }
+
+        double[] range() {
+            return new Histogram(counts, values).symmetricRange();
+        }
+    }
+
+    /**
+     * Writes dithered rows to the PNG, each pixel repeated scale times across
+     * and every row scale times down.
+     */
+    private static class OutputRow {
+        private final PngEncoder.Stream png;
+        private final int width;
+        private final int scale;
+
+        private int[] argb;
+        private byte[] gray;
+
+        OutputRow(PngEncoder.Stream png, int width, int scale) {
+            this.png = png;
+            this.width = width;
+            this.scale = scale;
+        }
+
+        void write(BufferedImage band) throws IOException {
+            int rows = band.getHeight();
+
+            if (png.format() == PngEncoder.Format.GRAY) {
+                byte[] pixels = RasterAccess.getGrayPixels(band);
+                byte[] line = new byte[width];
+
+                for (int y = 0; y < rows; y++) {
+                    if (pixels == null) {
+                        band.getRaster().getDataElements(0, y, width, 1, line);
+                    }
+
+                    writeGray(pixels != null ? pixels : line, pixels != null ? y * width : 0);
+                }
+
+                return;
+            }
+
+            int[] pixels = RasterAccess.getPackedPixels(band);
+            int[] line = new int[width];
+
+            for (int y = 0; y < rows; y++) {
+                if (pixels == null) {
+                    band.getRGB(0, y, width, 1, line, 0, width);
+                }
+
+                writeArgb(pixels != null ? pixels : line, pixels != null ? y * width : 0);
+            }
+        }
+
+        private void writeArgb(int[] pixels, int offset) throws IOException {
+            if (scale == 1) {
+                png.writeRow(pixels, offset);
+
+                return;
+            }
+
+            if (argb == null) {
+                argb = new int[width * scale];
+            }
+
+            for (int x = 0; x < width; x++) {
+                Arrays.fill(argb, x * scale, (x + 1) * scale, pixels[offset + x]);
+            }
+
+            for (int i = 0; i < scale; i++) {
+                png.writeRow(argb, 0);
+            }
+        }
+
+        private void writeGray(byte[] pixels, int offset) throws IOException {
+            if (scale == 1) {
+                png.writeRow(pixels, offset);
+
+                return;
+            }
+
+            if (gray == null) {
+                gray = new byte[width * scale];
+            }
+
+            for (int x = 0; x < width; x++) {
+                Arrays.fill(gray, x * scale, (x + 1) * scale, pixels[offset + x]);
+            }
+
+            for (int i = 0; i < scale; i++) {
+                png.writeRow(gray, 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package Dither;
+
+import Dither.Pipeline.Stage;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a Pipeline over many files as three overlapping stages connected by
+ * bounded queues: decode, dither (analyze, dither and palette) and a final
+ * stage given by the caller, usually saving. While one file dithers, the
+ * next one is being decoded and the previous one written, so neither the
+ * processors nor the disk wait for each other.
+ *
+ * Each stage has its own number of workers. A file takes one of maxImages
+ * permits before it is decoded and gives it back once the final stage is
+ * done with it, so no more than maxImages decoded images are in memory at
+ * once; decoders wait when the later stages fall behind. With one worker
+ * per stage, files reach the final stage in the order given.
+ */
+public class BatchPipeline {
+    private final Pipeline pipeline;
+    private final int decoders, ditherers, finishers;
+    private final int maxImages;
+
+    /**
+     * Receives every processed file in the final stage.
+     */
+    @FunctionalInterface
+    public interface ResultHandler {
+        /**
+         * Called with each processed image, from one of the final stage
+         * workers.
+         *
+         * @param filePath the file the image was read from
+         * @param result the processed image
+         * @throws Exception to report the file as failed
+         */
+        void handle(String filePath, PipelineResult result) throws Exception;
+
+        /**
+         * Called when a file could not be read, processed or handled, from
+         * the worker of the stage that failed.
+         *
+         * @param filePath the file that failed
+         * @param error the cause
+         */
+        default void failed(String filePath, Exception error) {
+            System.err.println("Error when processing image: " + filePath + ": " + error.getMessage());
+        }
+    }
+
+    /**
+     * Creates a batch runner with the given number of workers per stage.
+     *
+     * @param pipeline the pipeline whose stages are run
+     * @param decoders number of files decoded at the same time
+     * @param ditherers number of files dithered at the same time
+     * @param finishers number of files in the final stage at the same time
+     * @param maxImages largest number of decoded images held at once, in
+     * every stage and queue together
+     * @throws IllegalArgumentException if any count is less than 1
+     */
+    public BatchPipeline(Pipeline pipeline, int decoders, int ditherers, int finishers, int maxImages) {
+        if (decoders < 1 || ditherers < 1 || finishers < 1 || maxImages < 1) {
+            throw new IllegalArgumentException("Every stage needs at least one worker and one image");
+        }
+
+        this.pipeline = pipeline;
+        this.decoders = decoders;
+        this.ditherers = ditherers;
+        this.finishers = finishers;
+        this.maxImages = maxImages;
+    }
+
+    /**
+     * Processes every file and hands the results to the handler, returning
+     * once all of them went through the final stage or failed.
+     *
+     * @param filePaths the image files to process
+     * @param handler the final stage
+     * @return the number of files handled without failing
+     * @throws InterruptedException if interrupted while waiting, the workers
+     * are then stopped
+     */
+    public int run(List<String> filePaths, ResultHandler handler) throws InterruptedException {
+        BlockingQueue<String> pending = new ArrayBlockingQueue<>(Math.max(1, filePaths.size()), false, filePaths);
+        BlockingQueue<Item> decoded = new ArrayBlockingQueue<>(maxImages);
+        BlockingQueue<Item> dithered = new ArrayBlockingQueue<>(maxImages);
+
+        Semaphore permits = new Semaphore(maxImages);
+        AtomicInteger decoding = new AtomicInteger(decoders);
+        AtomicInteger dithering = new AtomicInteger(ditherers);
+        AtomicInteger handled = new AtomicInteger();
+
+        ExecutorService executor = Executors.newFixedThreadPool(decoders + ditherers + finishers);
+        CompletionService<Void> workers = new ExecutorCompletionService<>(executor);
+
+        for (int i = 0; i < decoders; i++) {
+            workers.submit(() -> {
+                // The last decoder tells every ditherer there is nothing left,
+                // even when it stops on an Error, or they would wait forever
+                try {
+                    decode(pending, decoded, permits, handler);
+                } finally {
+                    if (decoding.decrementAndGet() == 0) {
+                        endOfInput(decoded, ditherers);
+                    }
+                }
+
+                return null;
+            });
+        }
+
+        for (int i = 0; i < ditherers; i++) {
+            workers.submit(() -> {
+                try {
+                    dither(decoded, dithered, permits, handler);
+                } finally {
+                    if (dithering.decrementAndGet() == 0) {
+                        endOfInput(dithered, finishers);
+                    }
+                }
+
+                return null;
+            });
+        }
+
+        for (int i = 0; i < finishers; i++) {
+            workers.submit(() -> {
+                finish(dithered, permits, handler, handled);
+
+                return null;
+            });
+        }
+
+        try {
+            // In the order they end, so that the first failure stops the
+            // others at once instead of leaving them blocked on the queues
+            for (int i = 0; i < decoders + ditherers + finishers; i++) {
+                workers.take().get();
+            }
+        } catch (ExecutionException e) {
+            // Stages catch the Exceptions of each file, only an Error such as
+            // OutOfMemoryError or a bug gets here
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+
+            throw new IllegalStateException("Batch worker failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return handled.get();
+    }
+
+    private void decode(BlockingQueue<String> pending, BlockingQueue<Item> decoded, Semaphore permits,
+            ResultHandler handler) throws InterruptedException {
+        String path;
+
+        while ((path = pending.poll()) != null) {
+            permits.acquire();
+
+            Map<Stage, Long> times = new EnumMap<>(Stage.class);
+            boolean passed = false;
+
+            try {
+                BufferedImage image = pipeline.read(path, times);
+
+                if (image == null) {
+                    throw new IOException("Could not read image");
+                }
+
+                decoded.put(new Item(path, image, times, null));
+                passed = true;
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                handler.failed(path, e);
+            } finally {
+                // The permit goes along with the image, or back if it stops here
+                if (!passed) {
+                    permits.release();
+                }
+            }
+        }
+    }
+
+    private void dither(BlockingQueue<Item> decoded, BlockingQueue<Item> dithered, Semaphore permits,
+            ResultHandler handler) throws InterruptedException {
+        Item item;
+
+        while ((item = decoded.take()) != Item.END) {
+            boolean passed = false;
+
+            try {
+                dithered.put(new Item(item.path(), null, null, pipeline.finish(item.image(), item.times())));
+                passed = true;
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                handler.failed(item.path(), e);
+            } finally {
+                if (!passed) {
+                    permits.release();
+                }
+            }
+        }
+    }
+
+    private void finish(BlockingQueue<Item> dithered, Semaphore permits, ResultHandler handler,
+            AtomicInteger handled) throws InterruptedException {
+        Item item;
+
+        while ((item = dithered.take()) != Item.END) {
+            try {
+                handler.handle(item.path(), item.result());
+                handled.incrementAndGet();
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                handler.failed(item.path(), e);
+            } finally {
+                permits.release();
+            }
+        }
+    }
+
+    private static void endOfInput(BlockingQueue<Item> queue, int workers) throws InterruptedException {
+        for (int i = 0; i < workers; i++) {
+            queue.put(Item.END);
+        }
+    }
+
+    // A file between two stages, with its image before dithering or its
+    // result after
+    private record Item(String path, BufferedImage image, Map<Stage, Long> times, PipelineResult result) {
+        static final Item END = new Item(null, null, null, null);
+    }
+}
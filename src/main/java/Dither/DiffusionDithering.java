@@ -1,16 +1,23 @@
 package Dither;
 
-import Dither.Util.DataConverter;
+import Dither.Util.RasterAccess;
+import Dither.Util.TYPE;
+import Dither.Util.WorkerPool;
 import Dither.Interface.ColorQuantizer;
+
 import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class DiffusionDithering {
     private final ColorQuantizer quantizer;
-    private final DataConverter dc = new DataConverter();
     
     private final boolean rangeQ;
     private final int bitValue;
     private final double spread;
+    private final int threads;
     
     /**
      * Constructs a DiffusionDithering instance with the specified number of
@@ -25,10 +32,29 @@ public class DiffusionDithering {
      * @param spread double value defines how much dither will be applied
      */
     public DiffusionDithering(ColorQuantizer quantizer, int bitValue, boolean rangeQ, double spread) {
+        this(quantizer, bitValue, rangeQ, spread, 1);
+    }
+    
+    /**
+     * Constructs a DiffusionDithering instance that dithers up to 'threads'
+     * rows at the same time along a skewed wavefront. The output is identical
+     * for any number of threads.
+     *
+     * @param quantizer the color-quantization strategy (e.g. RgbQuantizer or
+     * HsbQuantizer)
+     * @param bitValue the number of discrete color levels for quantization
+     * (e.g., 2, 4, 8, …)
+     * @param rangeQ true to apply dynamic‑range quantization, false for uniform
+     * quantization
+     * @param spread double value defines how much dither will be applied
+     * @param threads number of threads used, 1 for the serial path
+     */
+    public DiffusionDithering(ColorQuantizer quantizer, int bitValue, boolean rangeQ, double spread, int threads) {
         this.quantizer = quantizer;
         this.bitValue = bitValue;
         this.rangeQ = rangeQ;
         this.spread = spread;
+        this.threads = threads;
     }
     
     /**
@@ -38,12 +64,7 @@ public class DiffusionDithering {
      * @param image the BufferedImage to be dithered in place
      */
     public void applyFloydSteinberg(BufferedImage image) {
-        double[][] floydSteinberg = {
-            {0, 0, 7.0/16},
-            {3.0/16, 5.0/16, 1.0/16}
-        };
-        
-        dither(image, floydSteinberg);
+        dither(image, kernel(TYPE.Floyd_Steinberg));
     }
     
     /**
@@ -53,13 +74,7 @@ public class DiffusionDithering {
      * @param image the BufferedImage to be dithered in place
      */
     public void applyJarvisJudiceNinke(BufferedImage image) {
-        double[][] jjn = {
-            {0, 0, 0, 7.0/48, 5.0/48},
-            {3.0/ 48, 5.0/48, 7.0/48, 5.0/48, 3.0/48},
-            {1.0/48, 3.0/48, 5.0/48, 3.0/48, 1.0/48}
-        };
-        
-        dither(image, jjn);
+        dither(image, kernel(TYPE.JJN));
     }
     
     /**
@@ -68,13 +83,7 @@ public class DiffusionDithering {
      * @param image the BufferedImage to be dithered in place
      */
     public void applyStucki(BufferedImage image) {
-        double[][] stucki = {
-            {0, 0, 0, 8.0/42, 4.0/42},
-            {2.0/42, 4.0/42, 8.0/42, 4.0/42, 2.0/42},
-            {1.0/42, 2.0/42, 4.0/42, 2.0/42, 1.0/42}
-        };
-        
-        dither(image, stucki);
+        dither(image, kernel(TYPE.Stucki));
     }
     
     /**
@@ -83,14 +92,7 @@ public class DiffusionDithering {
      * @param image the BufferedImage to be dithered in place
      */
     public void applyAtkinson(BufferedImage image) {
-        // Added extra 0 to make it a 5 collumn matrix so it can actually work with my generic code for error diffusion
-        double[][] atkinson = {
-            {0, 0, 0, 1.0/8, 1.0/8},
-            {0, 1.0/8, 1.0/8, 1.0/8, 0},
-            {0, 0, 1.0/8, 0, 0}
-        };
-        
-        dither(image, atkinson);
+        dither(image, kernel(TYPE.Atkinson));
     }
     
     /**
@@ -99,12 +101,7 @@ public class DiffusionDithering {
      * @param image the BufferedImage to be dithered in place
      */
     public void applyBurkes(BufferedImage image) {
-        double[][] burkes = {
-            {0, 0, 0, 8.0/32, 4.0/32},
-            {2.0/32, 4.0/32, 8.0/32, 4.0/32, 2.0/32}
-        };
-        
-        dither(image, burkes);
+        dither(image, kernel(TYPE.Burkes));
     }
     
     /**
@@ -113,13 +110,7 @@ public class DiffusionDithering {
      * @param image the BufferedImage to be dithered in place
      */
     public void applySierra(BufferedImage image) {
-        double[][] sierra = {
-            {0, 0, 0, 5.0/32, 3.0/32},
-            {2.0/32, 4.0/32, 5.0/32, 4.0/32, 2.0/32},
-            {0, 2.0/32, 3.0/32, 2.0/32, 0}
-        };
-        
-        dither(image, sierra);
+        dither(image, kernel(TYPE.Sierra));
     }
     
     /**
@@ -129,12 +120,7 @@ public class DiffusionDithering {
      * @param image the BufferedImage to be dithered in place
      */
     public void applyTwoRowSierra(BufferedImage image) {
-        double[][] twoRowSierra = {
-            {0, 0, 0, 4.0/16, 3.0/16},
-            {1.0/16, 2.0/16, 3.0/16, 2.0/16, 1.0/16}
-        };
-        
-        dither(image, twoRowSierra);
+        dither(image, kernel(TYPE.Two_Row_Sierra));
     }
     
     /**
@@ -143,68 +129,149 @@ public class DiffusionDithering {
      * @param image the BufferedImage to be dithered in place
      */
     public void applySierraLite(BufferedImage image) {
-        double[][] sierraLite = {
-            {0, 0, 2.0/4},
-            {1.0/4, 1.0/4, 0}
+        dither(image, kernel(TYPE.Sierra_Lite));
+    }
+    
+    /**
+     * The diffusion kernel of an error diffusion type, with the spread of
+     * this instance.
+     *
+     * @param type one of the error diffusion types
+     * @return the compiled kernel
+     * @throws IllegalArgumentException if the type does not diffuse error
+     */
+    DiffusionKernel kernel(TYPE type) {
+        return switch (type) {
+            case Floyd_Steinberg -> new DiffusionKernel(new int[][]{
+                {0, 0, 7},
+                {3, 5, 1}
+            }, 1, 16, spread);
+            case JJN -> new DiffusionKernel(new int[][]{
+                {0, 0, 0, 7, 5},
+                {3, 5, 7, 5, 3},
+                {1, 3, 5, 3, 1}
+            }, 2, 48, spread);
+            case Stucki -> new DiffusionKernel(new int[][]{
+                {0, 0, 0, 8, 4},
+                {2, 4, 8, 4, 2},
+                {1, 2, 4, 2, 1}
+            }, 2, 42, spread);
+            case Atkinson -> new DiffusionKernel(new int[][]{
+                {0, 0, 1, 1},
+                {1, 1, 1, 0},
+                {0, 1, 0, 0}
+            }, 1, 8, spread);
+            case Burkes -> new DiffusionKernel(new int[][]{
+                {0, 0, 0, 8, 4},
+                {2, 4, 8, 4, 2}
+            }, 2, 32, spread);
+            case Sierra -> new DiffusionKernel(new int[][]{
+                {0, 0, 0, 5, 3},
+                {2, 4, 5, 4, 2},
+                {0, 2, 3, 2, 0}
+            }, 2, 32, spread);
+            case Two_Row_Sierra -> new DiffusionKernel(new int[][]{
+                {0, 0, 0, 4, 3},
+                {1, 2, 3, 2, 1}
+            }, 2, 16, spread);
+            case Sierra_Lite -> new DiffusionKernel(new int[][]{
+                {0, 0, 2},
+                {1, 1, 0}
+            }, 1, 4, spread);
+            default -> throw new IllegalArgumentException("Not an error diffusion type: " + type);
         };
-        
-        dither(image, sierraLite);
     }
     
     // Based on the wikipedia pseudo code
-    private void dither(BufferedImage image, double[][] diffusion) {
-        int matrixHeight = diffusion.length;
-        int matrixWidth = diffusion[0].length;
-        int matrixCenterX = matrixWidth / 2;
-        
+    private void dither(BufferedImage image, DiffusionKernel kernel) {
         if (rangeQ) {
             quantizer.prepare(image, bitValue);
         }
         
-        for (int y = 0; y < image.getHeight(); y++) {
-            for (int x = 0; x < image.getWidth(); x++) {
-                int[] oldRGBA = dc.convertFromIntegerToArray(image.getRGB(x, y));
-                
-                int[] newRGBA = quantizer.quantize(oldRGBA, bitValue, rangeQ);
-                
-                image.setRGB(x, y, dc.convertFromArrayToInteger(newRGBA));
-                
-                int[] error = new int[oldRGBA.length];
-                
-                for (int i = 0; i < oldRGBA.length; i++) {
-                    error[i] = oldRGBA[i] - newRGBA[i];
-                }
-                
-                // Diffuse error value to adjacent pixels
-                for (int dy = 0; dy < matrixHeight; dy++) {
-                    for (int dx = 0; dx < matrixWidth; dx++) {
-                        int targetX = x + dx - matrixCenterX;
-                        int targetY = y + dy;
-                        
-                        double factor = diffusion[dy][dx] * spread;
-
-                        if (factor != 0.0) {
-                            diffuseError(image, targetX, targetY, error, factor);
-                        }
-                    }
-                }
-            }
-        }
+        ErrorDiffusionEngine engine = engine(kernel, image.getWidth(), image.getHeight());
+        
+        ditherRows(engine, image, 0);
+    }
+    
+    /**
+     * An engine for images of the given size with this instance's quantizer,
+     * levels and threads. With range quantization the quantizer must already
+     * be prepared.
+     */
+    ErrorDiffusionEngine engine(DiffusionKernel kernel, int width, int height) {
+        int workers = Math.max(1, Math.min(threads, height));
+        
+        return new ErrorDiffusionEngine(quantizer, bitValue, rangeQ, kernel, width, height, workers);
     }
     
-    private void diffuseError(BufferedImage image, int x, int y, int[] error, double factor) {
-        // Out of bounds
-        if (x < 0 || x >= image.getWidth() || y < 0 || y >= image.getHeight()) {
+    /**
+     * Dithers every row of a band of an image, whose first row is the given
+     * row of the image. Bands must be passed in order, the error of the last
+     * rows of a band is carried by the engine into the next one.
+     */
+    void ditherRows(ErrorDiffusionEngine engine, BufferedImage band, int firstRow) {
+        int height = band.getHeight();
+        int workers = Math.max(1, Math.min(threads, height));
+        
+        RowWorker worker = RasterAccess.isGray(band)
+                ? grayWorker(engine, band, firstRow)
+                : argbWorker(engine, band, firstRow);
+        
+        if (workers == 1) {
+            worker.run(new AtomicInteger(), height);
+            
             return;
         }
         
-        int[] rgba = dc.convertFromIntegerToArray(image.getRGB(x, y));
+        // Every worker takes the next row in order, the engine makes it wait
+        // for the row above
+        AtomicInteger nextRow = new AtomicInteger();
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
         
-        // Ignore alpha
-        for (int i = 1; i < rgba.length; i++) {
-            rgba[i] = Math.max(0, Math.min(255, rgba[i] + (int) (error[i] * factor)));
+        for (int i = 0; i < workers; i++) {
+            tasks.add(WorkerPool.get().submit(() -> worker.run(nextRow, height)));
         }
         
-        image.setRGB(x, y, dc.convertFromArrayToInteger(rgba));
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+    }
+    
+    private RowWorker argbWorker(ErrorDiffusionEngine engine, BufferedImage image, int firstRow) {
+        int width = image.getWidth();
+        int[] pixels = RasterAccess.getPackedPixels(image);
+        
+        return (nextRow, height) -> {
+            int[] row = new int[width];
+            
+            for (int y = nextRow.getAndIncrement(); y < height; y = nextRow.getAndIncrement()) {
+                if (pixels != null) {
+                    engine.ditherRow(pixels, y * width, firstRow + y);
+                    
+                    continue;
+                }
+                
+                // Not a packed int raster, go through a row buffer instead
+                image.getRGB(0, y, width, 1, row, 0, width);
+                engine.ditherRow(row, 0, firstRow + y);
+                image.setRGB(0, y, width, 1, row, 0, width);
+            }
+        };
+    }
+    
+    private RowWorker grayWorker(ErrorDiffusionEngine engine, BufferedImage image, int firstRow) {
+        return (nextRow, height) -> {
+            for (int y = nextRow.getAndIncrement(); y < height; y = nextRow.getAndIncrement()) {
+                RasterAccess.forEachGrayRow(image, y, y + 1, (pixels, offset, length, row) -> {
+                    engine.ditherGrayRow(pixels, offset, firstRow + row);
+                });
+            }
+        };
+    }
+    
+    // Dithers rows in order until none are left, on the thread calling it
+    @FunctionalInterface
+    private interface RowWorker {
+        void run(AtomicInteger nextRow, int height);
     }
 }
\ No newline at end of file
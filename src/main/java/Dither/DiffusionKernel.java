@@ -0,0 +1,165 @@
+package Dither;
+
+public class DiffusionKernel {
+    /**
+     * Number of fractional bits of the fixed-point weights.
+     */
+    public static final int FIXED_SHIFT = 16;
+
+    /**
+     * Half of one fixed-point unit, added before shifting to round to nearest.
+     */
+    public static final int FIXED_HALF = 1 << (FIXED_SHIFT - 1);
+
+    private final int[] dx;
+    private final int[] dy;
+    private final int[] fixedWeights;
+
+    private final int rows;
+    private final int left;
+    private final int right;
+    private final int reach;
+
+    /**
+     * Compiles a diffusion matrix into a flat list of taps, keeping only its
+     * non-zero cells and folding the spread into every weight.
+     *
+     * The matrix holds integer numerators of 'divisor'. Its first row is the
+     * current row, where column 'centerX' is the current pixel, so only cells
+     * to the right of it may be set there.
+     *
+     * Weights are kept in fixed point with FIXED_SHIFT fractional bits,
+     * rounded to nearest. A weight is exact when numerator / divisor × spread
+     * is a multiple of 2^-16, as with power-of-two divisors (/16, /32, /8,
+     * /4) and the default spread of 0.5; otherwise, as with /42 or /48, it is
+     * within 2^-17 of the real weight.
+     *
+     * @param matrix the weight numerators, one row per image row
+     * @param centerX the column of the matrix under the current pixel
+     * @param divisor the common denominator of all weights
+     * @param spread double value defines how much dither will be applied
+     * @throws IllegalArgumentException if the divisor is not positive or the
+     * matrix sends error to an already processed pixel
+     */
+    public DiffusionKernel(int[][] matrix, int centerX, int divisor, double spread) {
+        if (divisor <= 0) {
+            throw new IllegalArgumentException("Divisor must be positive.");
+        }
+
+        int taps = 0;
+
+        for (int y = 0; y < matrix.length; y++) {
+            for (int x = 0; x < matrix[y].length; x++) {
+                if (matrix[y][x] == 0) {
+                    continue;
+                }
+
+                if (y == 0 && x <= centerX) {
+                    throw new IllegalArgumentException("The current row may only diffuse to the right of the current pixel.");
+                }
+
+                taps++;
+            }
+        }
+
+        this.dx = new int[taps];
+        this.dy = new int[taps];
+        this.fixedWeights = new int[taps];
+
+        int i = 0;
+        int minX = 0, maxX = 0, lag = 0;
+
+        for (int y = 0; y < matrix.length; y++) {
+            for (int x = 0; x < matrix[y].length; x++) {
+                if (matrix[y][x] == 0) {
+                    continue;
+                }
+
+                double weight = (double) matrix[y][x] / divisor * spread;
+
+                dx[i] = x - centerX;
+                dy[i] = y;
+                fixedWeights[i] = (int) Math.round(weight * (1 << FIXED_SHIFT));
+
+                minX = Math.min(minX, dx[i]);
+                maxX = Math.max(maxX, dx[i]);
+
+                // A row must stay this far behind the one above so that every
+                // tap reaching back to it, possibly through several rows, is done
+                if (y > 0) {
+                    lag = Math.max(lag, (-dx[i] + y - 1) / y);
+                }
+
+                i++;
+            }
+        }
+
+        this.rows = matrix.length;
+        this.left = -minX;
+        this.right = maxX;
+        this.reach = lag;
+    }
+
+    /**
+     * @return the number of taps, that is, of non-zero weights
+     */
+    public int size() {
+        return dx.length;
+    }
+
+    /**
+     * @param i the tap index
+     * @return the horizontal offset of the tap, relative to the current pixel
+     */
+    public int dx(int i) {
+        return dx[i];
+    }
+
+    /**
+     * @param i the tap index
+     * @return the vertical offset of the tap, 0 being the current row
+     */
+    public int dy(int i) {
+        return dy[i];
+    }
+
+    /**
+     * @param i the tap index
+     * @return the weight of the tap with the spread applied, as a fixed-point
+     * value with FIXED_SHIFT fractional bits
+     */
+    public int fixedWeight(int i) {
+        return fixedWeights[i];
+    }
+
+    /**
+     * @return the number of image rows the kernel touches, the current one
+     * included
+     */
+    public int rows() {
+        return rows;
+    }
+
+    /**
+     * @return how many pixels the kernel reaches to the left of the current one
+     */
+    public int left() {
+        return left;
+    }
+
+    /**
+     * @return how many pixels the kernel reaches to the right of the current
+     * one
+     */
+    public int right() {
+        return right;
+    }
+
+    /**
+     * @return how many pixels a row has to stay behind the row above when rows
+     * are dithered concurrently
+     */
+    public int reach() {
+        return reach;
+    }
+}
@@ -0,0 +1,286 @@
+package Dither;
+
+import Dither.Interface.ColorQuantizer;
+
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static Dither.DiffusionKernel.FIXED_HALF;
+import static Dither.DiffusionKernel.FIXED_SHIFT;
+
+public class ErrorDiffusionEngine {
+    // How many pixels a row advances before publishing its progress
+    private static final int PUBLISH_STEP = 32;
+
+    private final ColorQuantizer quantizer;
+
+    private final int bitValue;
+    private final boolean rangeQ;
+
+    // Quantized value of every gray level, for ditherGrayRow
+    private final byte[] grayTable;
+
+    private final DiffusionKernel kernel;
+
+    private final int width;
+    private final int height;
+    private final int kernelRows;
+    private final int ringSize;
+
+    // Pending fixed-point error as [ring slot of target row * kernelRows + dy][channel][x + kernel.left()].
+    // Every buffer is written by a single source row (target - dy) and read by
+    // the target row, so rows can be interleaved freely between threads.
+    private final int[][][] errors;
+
+    // Number of pixels already dithered in each row
+    private final AtomicIntegerArray progress;
+    private volatile boolean aborted = false;
+
+    /**
+     * Constructs an error diffusion engine for a single thread.
+     *
+     * @param quantizer the color-quantization strategy, already prepared if
+     * rangeQ is true
+     * @param bitValue the number of discrete color levels for quantization
+     * @param rangeQ true to apply dynamic‑range quantization, false for uniform
+     * quantization
+     * @param kernel the compiled diffusion kernel, spread included
+     * @param width the width in pixels of every row passed to ditherRow
+     * @param height the number of rows of the image
+     */
+    public ErrorDiffusionEngine(ColorQuantizer quantizer, int bitValue, boolean rangeQ,
+                                DiffusionKernel kernel, int width, int height) {
+        this(quantizer, bitValue, rangeQ, kernel, width, height, 1);
+    }
+
+    /**
+     * Constructs an error diffusion engine for images of the given size.
+     *
+     * The engine keeps the error still to be applied in rolling rows instead
+     * of writing intermediate values back into the image. Up to 'threads' rows
+     * may be dithered at the same time, each on its own thread: a row waits
+     * until the row above is far enough ahead for the kernel's reach, forming
+     * a skewed wavefront. The result is the same for any number of threads.
+     *
+     * @param quantizer the color-quantization strategy, already prepared if
+     * rangeQ is true
+     * @param bitValue the number of discrete color levels for quantization
+     * @param rangeQ true to apply dynamic‑range quantization, false for uniform
+     * quantization
+     * @param kernel the compiled diffusion kernel, spread included
+     * @param width the width in pixels of every row passed to ditherRow
+     * @param height the number of rows of the image
+     * @param threads the maximum number of rows dithered concurrently
+     */
+    public ErrorDiffusionEngine(ColorQuantizer quantizer, int bitValue, boolean rangeQ,
+                                DiffusionKernel kernel, int width, int height, int threads) {
+        this.quantizer = quantizer;
+        this.bitValue = bitValue;
+        this.rangeQ = rangeQ;
+        this.grayTable = quantizer.grayTable(bitValue, rangeQ);
+        this.kernel = kernel;
+        this.width = width;
+        this.height = height;
+        this.kernelRows = kernel.rows();
+        this.ringSize = kernelRows + Math.max(1, threads);
+        this.errors = new int[ringSize * kernelRows][3][width + kernel.left() + kernel.right()];
+        this.progress = new AtomicIntegerArray(height);
+    }
+
+    /**
+     * Dithers one row of packed 0xAARRGGBB pixels in place.
+     *
+     * Every row must be dithered exactly once. When rows are dithered on
+     * several threads, this call blocks until the rows it depends on are far
+     * enough ahead.
+     *
+     * @param pixels the array holding the row
+     * @param offset index of the first pixel of the row in the array
+     * @param y the row number
+     */
+    public void ditherRow(int[] pixels, int offset, int y) {
+        try {
+            claimBuffers(y);
+
+            int ready = y == 0 ? width : 0;
+            int reach = kernel.reach();
+
+            for (int x = 0; x < width; x++) {
+                int needed = Math.min(width, x + reach + 1);
+
+                if (ready < needed) {
+                    ready = awaitProgress(y - 1, needed);
+                }
+
+                int e = x + kernel.left();
+                int pendingR = FIXED_HALF, pendingG = FIXED_HALF, pendingB = FIXED_HALF;
+
+                for (int dy = 0; dy < kernelRows; dy++) {
+                    int[][] buffer = errors[bufferIndex(y, dy)];
+
+                    pendingR += buffer[0][e];
+                    pendingG += buffer[1][e];
+                    pendingB += buffer[2][e];
+                }
+
+                int argb = pixels[offset + x];
+
+                int a = (argb >>> 24);
+                int r = clamp(((argb >> 16) & 0xFF) + (pendingR >> FIXED_SHIFT));
+                int g = clamp(((argb >> 8) & 0xFF) + (pendingG >> FIXED_SHIFT));
+                int b = clamp((argb & 0xFF) + (pendingB >> FIXED_SHIFT));
+
+                int q = quantizer.quantizeArgb((a << 24) | (r << 16) | (g << 8) | b, bitValue, rangeQ);
+
+                pixels[offset + x] = q;
+
+                diffuse(x, y, r - ((q >> 16) & 0xFF), g - ((q >> 8) & 0xFF), b - (q & 0xFF));
+
+                if ((x + 1) % PUBLISH_STEP == 0) {
+                    progress.set(y, x + 1);
+                }
+            }
+
+            progress.set(y, width);
+        } catch (RuntimeException | Error e) {
+            aborted = true;
+
+            throw e;
+        }
+    }
+
+    /**
+     * Dithers one row of gray pixels, one byte each, in place. Only the first
+     * error channel is used; rows follow the same rules as ditherRow, and the
+     * two must not be mixed on the same engine.
+     *
+     * @param pixels the array holding the row
+     * @param offset index of the first pixel of the row in the array
+     * @param y the row number
+     */
+    public void ditherGrayRow(byte[] pixels, int offset, int y) {
+        try {
+            claimBuffers(y);
+
+            int ready = y == 0 ? width : 0;
+            int reach = kernel.reach();
+
+            for (int x = 0; x < width; x++) {
+                int needed = Math.min(width, x + reach + 1);
+
+                if (ready < needed) {
+                    ready = awaitProgress(y - 1, needed);
+                }
+
+                int e = x + kernel.left();
+                int pending = FIXED_HALF;
+
+                for (int dy = 0; dy < kernelRows; dy++) {
+                    pending += errors[bufferIndex(y, dy)][0][e];
+                }
+
+                int v = clamp((pixels[offset + x] & 0xFF) + (pending >> FIXED_SHIFT));
+                int q = grayTable[v] & 0xFF;
+
+                pixels[offset + x] = (byte) q;
+
+                diffuseGray(x, y, v - q);
+
+                if ((x + 1) % PUBLISH_STEP == 0) {
+                    progress.set(y, x + 1);
+                }
+            }
+
+            progress.set(y, width);
+        } catch (RuntimeException | Error e) {
+            aborted = true;
+
+            throw e;
+        }
+    }
+
+    /**
+     * Makes every row waiting on this engine fail, used when a worker
+     * dithering another row could not finish.
+     */
+    public void abort() {
+        aborted = true;
+    }
+
+    // Clears the buffers this row writes, once the rows that used them last are done
+    private void claimBuffers(int y) {
+        for (int dy = 0; dy < kernelRows && y + dy < height; dy++) {
+            int previous = y + dy - ringSize;
+
+            if (previous >= 0) {
+                awaitProgress(previous, width);
+            }
+
+            for (int[] channel : errors[bufferIndex(y + dy, dy)]) {
+                Arrays.fill(channel, 0);
+            }
+        }
+    }
+
+    private int awaitProgress(int row, int needed) {
+        int done;
+        int spins = 0;
+
+        while ((done = progress.get(row)) < needed) {
+            if (aborted) {
+                throw new CancellationException("Error diffusion aborted");
+            }
+
+            if (++spins < 1000) {
+                Thread.onSpinWait();
+            } else {
+                Thread.yield();
+            }
+        }
+
+        return done;
+    }
+
+    private void diffuse(int x, int y, int errR, int errG, int errB) {
+        int base = x + kernel.left();
+
+        for (int i = 0; i < kernel.size(); i++) {
+            int dy = kernel.dy(i);
+
+            if (y + dy >= height) {
+                continue;
+            }
+
+            int[][] buffer = errors[bufferIndex(y + dy, dy)];
+            int e = base + kernel.dx(i);
+            int weight = kernel.fixedWeight(i);
+
+            buffer[0][e] += errR * weight;
+            buffer[1][e] += errG * weight;
+            buffer[2][e] += errB * weight;
+        }
+    }
+
+    private void diffuseGray(int x, int y, int err) {
+        int base = x + kernel.left();
+
+        for (int i = 0; i < kernel.size(); i++) {
+            int dy = kernel.dy(i);
+
+            if (y + dy >= height) {
+                continue;
+            }
+
+            errors[bufferIndex(y + dy, dy)][0][base + kernel.dx(i)] += err * kernel.fixedWeight(i);
+        }
+    }
+
+    private int bufferIndex(int targetRow, int dy) {
+        return (targetRow % ringSize) * kernelRows + dy;
+    }
+
+    private int clamp(int v) {
+        return v < 0 ? 0 : (v > 255 ? 255 : v);
+    }
+}
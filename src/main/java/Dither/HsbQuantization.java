@@ -1,13 +1,21 @@
 package Dither;
 
-import Dither.Util.DataConverter;
 import Dither.Util.LuminanceRangeCalculator;
+import Dither.Util.ParallelExecutor;
+import Dither.Util.RasterAccess;
 
 import java.awt.Color;
 import java.awt.image.BufferedImage;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class HsbQuantization {
-    private final DataConverter dc = new DataConverter();
+    // Brightness tables shared by every instance, like the RgbQuantization tables
+    private static final Map<TableKey, int[]> TABLES = new ConcurrentHashMap<>();
+    private static final int MAX_TABLES = 4096;
+    
+    private static final int FIXED_SHIFT = 16;
+    private static final int FIXED_HALF = 1 << (FIXED_SHIFT - 1);
     
     private final int minLevels = 2;
     private final int maxLevels = 256;
@@ -22,6 +30,21 @@ public class HsbQuantization {
      * @throws IllegalArgumentException if levels is outside [2,256]
      */
     public void applyQuantization(BufferedImage image, int levels, boolean rangeQ) {
+        applyQuantization(image, levels, rangeQ, ParallelExecutor.serial());
+    }
+
+    /**
+     * Applies brightness quantization in HSB space like
+     * applyQuantization(image, levels, rangeQ), splitting the rows with the
+     * given executor.
+     *
+     * @param image  the BufferedImage to process
+     * @param levels the number of discrete brightness levels (2–256)
+     * @param rangeQ true for dynamic‐range quantization, false for uniform
+     * @param executor the executor running the rows
+     * @throws IllegalArgumentException if levels is outside [2,256]
+     */
+    public void applyQuantization(BufferedImage image, int levels, boolean rangeQ, ParallelExecutor executor) {
         if (levels < minLevels || levels > maxLevels) {
             throw new IllegalArgumentException(
                 "Brightness levels must be between " + minLevels + " and " + maxLevels
@@ -29,47 +52,185 @@ public class HsbQuantization {
         }
 
         if (rangeQ) {
-            brightnessQuantizationWithRange(image, levels);
+            brightnessQuantizationWithRange(image, levels, executor);
         } else {
-            brightnessQuantization(image, levels);
+            brightnessQuantization(image, levels, executor);
         }
     }
 
-    private void brightnessQuantization(BufferedImage image, int levels) {
-        int w = image.getWidth();
-        int h = image.getHeight();
-
-        for (int y = 0; y < h; y++) {
-            for (int x = 0; x < w; x++) {
-                Color orig = new Color(image.getRGB(x, y), true);
-                
-                float[] hsb = Color.RGBtoHSB(orig.getRed(), orig.getGreen(), orig.getBlue(), null);
-
-                hsb[2] = quantizeFloatChannel(hsb[2], levels);
-
-                image.setRGB(x, y, dc.convertFromHsbToRgb(hsb, orig.getAlpha()));
-            }
-        }
+    private void brightnessQuantization(BufferedImage image, int levels, ParallelExecutor executor) {
+        applyTable(image, uniformTable(levels), executor);
     }
 
-    private void brightnessQuantizationWithRange(BufferedImage image, int levels) {
-        int w = image.getWidth();
-        int h = image.getHeight();
-
+    private void brightnessQuantizationWithRange(BufferedImage image, int levels, ParallelExecutor executor) {
         double[] range = LuminanceRangeCalculator.compute(image, true);
         double minB = range[0], maxB = range[1];
 
-        for (int y = 0; y < h; y++) {
-            for (int x = 0; x < w; x++) {
-                Color orig = new Color(image.getRGB(x, y), true);
-                
-                float[] hsb = Color.RGBtoHSB(orig.getRed(), orig.getGreen(), orig.getBlue(), null);
-
-                hsb[2] = quantizeFloatWithRange(hsb[2], levels, minB, maxB);
+        applyTable(image, rangeTable(levels, minB, maxB), executor);
+    }
+    
+    /**
+     * Applies dynamic-range brightness quantization with a range measured
+     * beforehand, e.g. by LuminanceRangeCalculator.compute, instead of
+     * measuring the image again.
+     *
+     * @param image  the BufferedImage to process
+     * @param levels the number of discrete brightness levels (2–256)
+     * @param minB the lower bound of the brightness interval (0–1)
+     * @param maxB the upper bound of the brightness interval (0–1)
+     * @param executor the executor running the rows
+     * @throws IllegalArgumentException if levels is outside [2,256]
+     */
+    public void applyRangeQuantization(BufferedImage image, int levels, double minB, double maxB, ParallelExecutor executor) {
+        if (levels < minLevels || levels > maxLevels) {
+            throw new IllegalArgumentException(
+                "Brightness levels must be between " + minLevels + " and " + maxLevels
+            );
+        }
 
-                image.setRGB(x, y, dc.convertFromHsbToRgb(hsb, orig.getAlpha()));
+        applyTable(image, rangeTable(levels, minB, maxB), executor);
+    }
+    
+    /**
+     * Returns the brightness table of quantizeFloatChannel for the given
+     * number of levels, building it on first use.
+     *
+     * @param levels the number of quantization levels (must be ≥2)
+     * @return table for quantizeArgb(argb, table)
+     */
+    public int[] uniformTable(int levels) {
+        return table(new TableKey(levels, false, 0, 0), b -> quantizeFloatChannel(b, levels));
+    }
+    
+    /**
+     * Returns the brightness table of quantizeFloatWithRange for the given
+     * levels and interval, building it on first use.
+     *
+     * @param levels the number of quantization levels
+     * @param min the lower bound of the brightness interval
+     * @param max the upper bound of the brightness interval
+     * @return table for quantizeArgb(argb, table)
+     */
+    public int[] rangeTable(int levels, double min, double max) {
+        return table(new TableKey(levels, true, min, max), b -> quantizeFloatWithRange(b, levels, min, max));
+    }
+    
+    /**
+     * Quantizes the brightness of a packed 0xAARRGGBB pixel through a table
+     * from uniformTable or rangeTable, keeping its alpha.
+     *
+     * Brightness is the largest channel, and hue and saturation only depend
+     * on the ratios between channels, so changing the brightness scales all
+     * three channels by the same factor. The table holds that factor for
+     * each value of the largest channel, in 16.16 fixed point. Results are
+     * within ±1 per channel of quantizeArgbThroughHsb.
+     *
+     * @param argb the packed pixel
+     * @param table a table from uniformTable or rangeTable
+     * @return the quantized pixel, packed as 0xAARRGGBB
+     */
+    public int quantizeArgb(int argb, int[] table) {
+        int r = (argb >> 16) & 0xFF;
+        int g = (argb >> 8) & 0xFF;
+        int b = argb & 0xFF;
+        
+        int cmax = Math.max(r, Math.max(g, b));
+        
+        // Black has no hue to keep, entry 0 is the gray it becomes
+        if (cmax == 0) {
+            return (argb & 0xFF000000) | (table[0] * 0x010101);
+        }
+        
+        int scale = table[cmax];
+        
+        r = (r * scale + FIXED_HALF) >> FIXED_SHIFT;
+        g = (g * scale + FIXED_HALF) >> FIXED_SHIFT;
+        b = (b * scale + FIXED_HALF) >> FIXED_SHIFT;
+        
+        return (argb & 0xFF000000) | (r << 16) | (g << 8) | b;
+    }
+    
+    /**
+     * Quantizes the brightness of a packed 0xAARRGGBB pixel with
+     * quantizeFloatChannel, keeping its hue, saturation and alpha.
+     *
+     * @param argb the packed pixel
+     * @param levels the number of quantization levels (must be ≥2)
+     * @return the quantized pixel, packed as 0xAARRGGBB
+     */
+    public int quantizeArgb(int argb, int levels) {
+        return quantizeArgb(argb, uniformTable(levels));
+    }
+    
+    /**
+     * Quantizes the brightness of a packed 0xAARRGGBB pixel with
+     * quantizeFloatWithRange, keeping its hue, saturation and alpha.
+     *
+     * @param argb the packed pixel
+     * @param levels the number of quantization levels
+     * @param min the lower bound of the brightness interval
+     * @param max the upper bound of the brightness interval
+     * @return the quantized pixel, packed as 0xAARRGGBB
+     */
+    public int quantizeArgbWithRange(int argb, int levels, double min, double max) {
+        return quantizeArgb(argb, rangeTable(levels, min, max));
+    }
+    
+    /**
+     * Quantizes the brightness of a packed 0xAARRGGBB pixel by converting it
+     * to HSB and back, keeping its hue, saturation and alpha.
+     *
+     * This is the reference computation behind the brightness tables;
+     * quantizing whole images goes through the tables instead.
+     *
+     * @param argb the packed pixel
+     * @param levels the number of quantization levels
+     * @param rangeQ true to use quantizeFloatWithRange, false for
+     * quantizeFloatChannel
+     * @param min the lower bound of the brightness interval, used with rangeQ
+     * @param max the upper bound of the brightness interval, used with rangeQ
+     * @return the quantized pixel, packed as 0xAARRGGBB
+     */
+    public int quantizeArgbThroughHsb(int argb, int levels, boolean rangeQ, double min, double max) {
+        // Same math as Color.RGBtoHSB, inlined so no Color or float[] is allocated per pixel
+        int r = (argb >> 16) & 0xFF;
+        int g = (argb >> 8) & 0xFF;
+        int b = argb & 0xFF;
+        
+        int cmax = Math.max(r, Math.max(g, b));
+        int cmin = Math.min(r, Math.min(g, b));
+        
+        float brightness = ((float) cmax) / 255.0f;
+        float saturation = cmax != 0 ? ((float) (cmax - cmin)) / ((float) cmax) : 0;
+        float hue = 0;
+        
+        if (saturation != 0) {
+            float redc = ((float) (cmax - r)) / ((float) (cmax - cmin));
+            float greenc = ((float) (cmax - g)) / ((float) (cmax - cmin));
+            float bluec = ((float) (cmax - b)) / ((float) (cmax - cmin));
+            
+            if (r == cmax) {
+                hue = bluec - greenc;
+            } else if (g == cmax) {
+                hue = 2.0f + redc - bluec;
+            } else {
+                hue = 4.0f + greenc - redc;
             }
+            
+            hue = hue / 6.0f;
+            
+            if (hue < 0) {
+                hue = hue + 1.0f;
+            }
+        }
+        
+        if (rangeQ) {
+            brightness = quantizeFloatWithRange(brightness, levels, min, max);
+        } else {
+            brightness = quantizeFloatChannel(brightness, levels);
         }
+        
+        return (argb & 0xFF000000) | (Color.HSBtoRGB(hue, saturation, brightness) & 0x00FFFFFF);
     }
     
     /**
@@ -111,4 +272,65 @@ public class HsbQuantization {
     private float clamp01(float v) {
         return v < 0f ? 0f : (v > 1f ? 1f : v);
     }
+    
+    private void applyTable(BufferedImage image, int[] table, ParallelExecutor executor) {
+        if (RasterAccess.isGray(image)) {
+            // Gray stays gray, so each gray value has a single result
+            byte[] gray = new byte[256];
+            
+            for (int v = 0; v < 256; v++) {
+                gray[v] = (byte) quantizeArgb(0xFF000000 | (v * 0x010101), table);
+            }
+            
+            executor.forEachGrayRow(image, (pixels, offset, length, y) -> {
+                for (int i = offset; i < offset + length; i++) {
+                    pixels[i] = gray[pixels[i] & 0xFF];
+                }
+            });
+            
+            return;
+        }
+        
+        executor.forEachRow(image, (pixels, offset, length, y) -> {
+            for (int i = offset; i < offset + length; i++) {
+                pixels[i] = quantizeArgb(pixels[i], table);
+            }
+        });
+    }
+    
+    private int[] table(TableKey key, FloatUnaryOperator brightness) {
+        int[] table = TABLES.get(key);
+        
+        if (table != null) {
+            return table;
+        }
+        
+        // Range tables depend on each image, don't let a long batch grow the cache forever
+        if (TABLES.size() >= MAX_TABLES) {
+            TABLES.clear();
+        }
+        
+        return TABLES.computeIfAbsent(key, k -> {
+            int[] t = new int[256];
+            
+            // Color.HSBtoRGB rounds brightness * 255 to get the largest channel
+            t[0] = (int) (brightness.apply(0f) * 255.0f + 0.5f);
+            
+            // Rounded up so channels landing exactly on .5 round up like in
+            // Color.HSBtoRGB, the few extra 1/65536 never reach the next value
+            for (int cmax = 1; cmax < 256; cmax++) {
+                double target = brightness.apply(((float) cmax) / 255.0f) * 255.0;
+                
+                t[cmax] = (int) Math.ceil(target * (1 << FIXED_SHIFT) / cmax);
+            }
+            
+            return t;
+        });
+    }
+    
+    private interface FloatUnaryOperator {
+        float apply(float value);
+    }
+    
+    private record TableKey(int levels, boolean range, double min, double max) { }
 }
\ No newline at end of file
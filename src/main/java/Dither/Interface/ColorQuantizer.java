@@ -1,5 +1,8 @@
 package Dither.Interface;
 
+import Dither.Util.ChannelQuantization;
+import Dither.Util.ParallelExecutor;
+
 import java.awt.image.BufferedImage;
 
 public interface ColorQuantizer {
@@ -11,17 +14,121 @@ public interface ColorQuantizer {
      * @param levels the number of quantization levels
      */
     default void prepare(BufferedImage image, int levels) { }
-    
+
+    /**
+     * Fixes the [min, max] range used by dynamic-range quantization, so that
+     * prepare and quantizeImage use it instead of measuring each image. The
+     * range can then be measured once ahead of dithering, or shared by
+     * several images.
+     *
+     * @param range [min, max] as returned by LuminanceRangeCalculator.compute
+     * with the same useHsb as this quantizer, or null to measure every image
+     */
+    default void setRange(double[] range) { }
+
+    /**
+     * Quantize a single pixel packed as 0xAARRGGBB. Implementations must not
+     * allocate, this is called at least once per pixel.
+     *
+     * @param argb the packed pixel
+     * @param levels number of quantization levels
+     * @param rangeQ true for dynamic-range quantization, false for uniform
+     * @return the quantized pixel, packed as 0xAARRGGBB
+     */
+    int quantizeArgb(int argb, int levels, boolean rangeQ);
+
+    /**
+     * Quantize a run of packed 0xAARRGGBB pixels in place.
+     *
+     * @param src the array holding the pixels
+     * @param off index of the first pixel
+     * @param len number of pixels
+     * @param levels number of quantization levels
+     * @param rangeQ true for dynamic-range quantization, false for uniform
+     */
+    default void quantizeRow(int[] src, int off, int len, int levels, boolean rangeQ) {
+        for (int i = off; i < off + len; i++) {
+            src[i] = quantizeArgb(src[i], levels, rangeQ);
+        }
+    }
+
+    /**
+     * Quantize a gray value, for images stored with one byte per pixel.
+     *
+     * The default quantizes the opaque pixel with three channels equal to
+     * gray and keeps its red channel, which is exact for quantizers that turn
+     * gray into gray, like the RGB and HSB ones.
+     *
+     * @param gray the gray value (0–255)
+     * @param levels number of quantization levels
+     * @param rangeQ true for dynamic-range quantization, false for uniform
+     * @return the quantized gray value (0–255)
+     */
+    default int quantizeGray(int gray, int levels, boolean rangeQ) {
+        return (quantizeArgb(0xFF000000 | (gray * 0x010101), levels, rangeQ) >> 16) & 0xFF;
+    }
+
+    /**
+     * Returns quantizeGray for every gray value as a 256-entry table, used by
+     * the single channel paths of the dithering algorithms.
+     *
+     * @param levels number of quantization levels
+     * @param rangeQ true for dynamic-range quantization, false for uniform
+     * @return table of quantized values indexed by gray value (read entries
+     * with {@code & 0xFF})
+     */
+    default byte[] grayTable(int levels, boolean rangeQ) {
+        byte[] table = new byte[256];
+
+        for (int v = 0; v < 256; v++) {
+            table[v] = (byte) quantizeGray(v, levels, rangeQ);
+        }
+
+        return table;
+    }
+
+    /**
+     * Returns the quantization of a single channel as a 256-entry table, for
+     * quantizers that treat red, green and blue independently and alike. Such
+     * a table lets callers precompute whole stages per channel value.
+     *
+     * @param levels number of quantization levels
+     * @param rangeQ true for dynamic-range quantization, false for uniform
+     * @return table of quantized values indexed by channel value (read
+     * entries with {@code & 0xFF}), or null if channels are not independent
+     */
+    default byte[] channelTable(int levels, boolean rangeQ) {
+        return null;
+    }
+
+    /**
+     * Describes the mapping of channelTable as numbers, so it can be computed
+     * with arithmetic instead of lookups, e.g. by the vector kernels.
+     *
+     * @param levels number of quantization levels
+     * @param rangeQ true for dynamic-range quantization, false for uniform
+     * @return the channel mapping, or null if channelTable returns null
+     */
+    default ChannelQuantization channelQuantization(int levels, boolean rangeQ) {
+        return null;
+    }
+
     /**
      * Quantize a single pixel provided as an [A,R,G,B] array.
      *
+     * Kept for compatibility, it packs the array and calls quantizeArgb.
+     *
      * @param rgba array of components [alpha, red, green, blue] (0–255)
      * @param levels number of quantization levels
      * @param rangeQ true for dynamic-range quantization, false for uniform
      * @return the quantized pixel as an [A,R,G,B] array
      */
-    int[] quantize(int[] rgba, int levels, boolean rangeQ);
-    
+    default int[] quantize(int[] rgba, int levels, boolean rangeQ) {
+        int argb = quantizeArgb((rgba[0] << 24) | (rgba[1] << 16) | (rgba[2] << 8) | rgba[3], levels, rangeQ);
+
+        return new int[]{ argb >>> 24, (argb >> 16) & 0xFF, (argb >> 8) & 0xFF, argb & 0xFF };
+    }
+
     /**
      * Applies this quantizer to every pixel in the given image, in place.
      *
@@ -29,5 +136,18 @@ public interface ColorQuantizer {
      * @param levels number of quantization levels
      * @param rangeQ true for dynamic-range quantization, false for uniform
      */
-    void quantizeImage(BufferedImage image, int levels, boolean rangeQ);
-}
\ No newline at end of file
+    default void quantizeImage(BufferedImage image, int levels, boolean rangeQ) {
+        quantizeImage(image, levels, rangeQ, ParallelExecutor.serial());
+    }
+
+    /**
+     * Applies this quantizer to every pixel in the given image, in place,
+     * splitting the work with the given executor.
+     *
+     * @param image the BufferedImage to process
+     * @param levels number of quantization levels
+     * @param rangeQ true for dynamic-range quantization, false for uniform
+     * @param executor the executor running the rows
+     */
+    void quantizeImage(BufferedImage image, int levels, boolean rangeQ, ParallelExecutor executor);
+}
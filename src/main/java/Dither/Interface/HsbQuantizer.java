@@ -2,42 +2,82 @@ package Dither.Interface;
 
 import Dither.HsbQuantization;
 
-import Dither.Util.DataConverter;
 import Dither.Util.LuminanceRangeCalculator;
+import Dither.Util.ParallelExecutor;
 
-import java.awt.Color;
 import java.awt.image.BufferedImage;
 
 public class HsbQuantizer implements ColorQuantizer {
-    private final DataConverter dc = new DataConverter();
     private final HsbQuantization base = new HsbQuantization();
     
     private double minB, maxB;
+    
+    // Current brightness tables, replaced whenever the levels or range change
+    private volatile Table uniform, range;
+    
+    // Range given by setRange, or null to measure each image
+    private volatile double[] fixedRange;
 
     @Override
     public void prepare(BufferedImage image, int levels) {
-        double[] range = LuminanceRangeCalculator.compute(image, true);
+        double[] range = fixedRange != null ? fixedRange : LuminanceRangeCalculator.compute(image, true);
         minB = range[0];
         maxB = range[1];
+        
+        this.range = new Table(levels, base.rangeTable(levels, minB, maxB));
     }
 
     @Override
-    public int[] quantize(int[] rgba, int levels, boolean rangeQ) {
-        Color c = new Color(rgba[1], rgba[2], rgba[3], rgba[0]);
+    public int quantizeArgb(int argb, int levels, boolean rangeQ) {
+        return base.quantizeArgb(argb, table(levels, rangeQ));
+    }
+    
+    @Override
+    public void quantizeRow(int[] src, int off, int len, int levels, boolean rangeQ) {
+        int[] table = table(levels, rangeQ);
         
-        float[] hsb = Color.RGBtoHSB(c.getRed(), c.getGreen(), c.getBlue(), null );
-
-        if (rangeQ) {
-            hsb[2] = base.quantizeFloatWithRange(hsb[2], levels, minB, maxB);
-        } else {
-            hsb[2] = base.quantizeFloatChannel(hsb[2], levels);
+        for (int i = off; i < off + len; i++) {
+            src[i] = base.quantizeArgb(src[i], table);
         }
-        
-        return dc.convertFromIntegerToArray(dc.convertFromHsbToRgb(hsb, rgba[0]));
     }
     
     @Override
-    public void quantizeImage(BufferedImage image, int levels, boolean rangeQ) {
-        base.applyQuantization(image, levels, rangeQ);
+    public void setRange(double[] range) {
+        fixedRange = range != null ? range.clone() : null;
     }
+    
+    @Override
+    public void quantizeImage(BufferedImage image, int levels, boolean rangeQ, ParallelExecutor executor) {
+        double[] range = fixedRange;
+    
+        if (rangeQ && range != null) {
+            base.applyRangeQuantization(image, levels, range[0], range[1], executor);
+        } else {
+            base.applyQuantization(image, levels, rangeQ, executor);
+        }
+    }
+    
+    private int[] table(int levels, boolean rangeQ) {
+        if (rangeQ) {
+            Table t = range;
+            
+            if (t == null || t.levels() != levels) {
+                t = new Table(levels, base.rangeTable(levels, minB, maxB));
+                range = t;
+            }
+            
+            return t.scales();
+        }
+        
+        Table t = uniform;
+        
+        if (t == null || t.levels() != levels) {
+            t = new Table(levels, base.uniformTable(levels));
+            uniform = t;
+        }
+        
+        return t.scales();
+    }
+    
+    private record Table(int levels, int[] scales) { }
 }
\ No newline at end of file
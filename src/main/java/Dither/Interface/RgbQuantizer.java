@@ -2,7 +2,9 @@ package Dither.Interface;
 
 import Dither.RgbQuantization;
 
+import Dither.Util.ChannelQuantization;
 import Dither.Util.LuminanceRangeCalculator;
+import Dither.Util.ParallelExecutor;
 
 import java.awt.image.BufferedImage;
 
@@ -10,32 +12,93 @@ public class RgbQuantizer implements ColorQuantizer {
     private final RgbQuantization base = new RgbQuantization();
     private double min, max;
 
+    // Current lookup tables, replaced whenever the levels or range change
+    private volatile Table uniform, range;
+
+    // Range given by setRange, or null to measure each image
+    private volatile double[] fixedRange;
+
     @Override
     public void prepare(BufferedImage image, int levels) {
-        double[] range = LuminanceRangeCalculator.compute(image, false);
+        double[] range = fixedRange != null ? fixedRange : LuminanceRangeCalculator.compute(image, false);
         min = range[0];
         max = range[1];
+
+        this.range = new Table(levels, base.rangeTable(levels, min, max));
     }
 
     @Override
-    public int[] quantize(int[] rgba, int levels, boolean rangeQ) {
-        int a = rgba[0], r = rgba[1], g = rgba[2], b = rgba[3];
-        
-        if (rangeQ) {
-            r = base.quantizeWithRange(r, levels, min, max);
-            g = base.quantizeWithRange(g, levels, min, max);
-            b = base.quantizeWithRange(b, levels, min, max);
-        } else {
-            r = base.quantizeChannel(r, levels);
-            g = base.quantizeChannel(g, levels);
-            b = base.quantizeChannel(b, levels);
+    public int quantizeArgb(int argb, int levels, boolean rangeQ) {
+        return base.quantizeArgb(argb, table(levels, rangeQ));
+    }
+
+    @Override
+    public void quantizeRow(int[] src, int off, int len, int levels, boolean rangeQ) {
+        byte[] table = table(levels, rangeQ);
+
+        for (int i = off; i < off + len; i++) {
+            src[i] = base.quantizeArgb(src[i], table);
         }
-        
-        return new int[]{ a, r, g, b };
     }
 
     @Override
-    public void quantizeImage(BufferedImage image, int levels, boolean rangeQ) {
-        base.applyQuantization(image, levels, rangeQ);
+    public int quantizeGray(int gray, int levels, boolean rangeQ) {
+        return table(levels, rangeQ)[gray] & 0xFF;
+    }
+
+    // Gray goes through the same table as each channel
+    @Override
+    public byte[] grayTable(int levels, boolean rangeQ) {
+        return table(levels, rangeQ);
+    }
+
+    @Override
+    public byte[] channelTable(int levels, boolean rangeQ) {
+        return table(levels, rangeQ);
+    }
+
+    @Override
+    public ChannelQuantization channelQuantization(int levels, boolean rangeQ) {
+        return rangeQ ? new ChannelQuantization(levels, true, min, max) : new ChannelQuantization(levels, false, 0, 0);
+    }
+
+    @Override
+    public void setRange(double[] range) {
+        fixedRange = range != null ? range.clone() : null;
+    }
+
+    @Override
+    public void quantizeImage(BufferedImage image, int levels, boolean rangeQ, ParallelExecutor executor) {
+        double[] range = fixedRange;
+
+        if (rangeQ && range != null) {
+            base.applyRangeQuantization(image, levels, range[0], range[1], executor);
+        } else {
+            base.applyQuantization(image, levels, rangeQ, executor);
+        }
     }
-}
\ No newline at end of file
+
+    private byte[] table(int levels, boolean rangeQ) {
+        if (rangeQ) {
+            Table t = range;
+
+            if (t == null || t.levels() != levels) {
+                t = new Table(levels, base.rangeTable(levels, min, max));
+                range = t;
+            }
+
+            return t.lut();
+        }
+
+        Table t = uniform;
+
+        if (t == null || t.levels() != levels) {
+            t = new Table(levels, base.uniformTable(levels));
+            uniform = t;
+        }
+
+        return t.lut();
+    }
+
+    private record Table(int levels, byte[] lut) { }
+}
@@ -1,27 +1,19 @@
 package Dither;
 
-import Dither.Util.Scaler;
+import Dither.Pipeline.Stage;
 import Dither.Util.TYPE;
-import Dither.Interface.HsbQuantizer;
-import Dither.Interface.ColorQuantizer;
-import Dither.Interface.RgbQuantizer;
+import Dither.Util.WorkerPool;
 
-import FileManager.PngReader;
 import FileManager.PngSaver;
 
 import Windows.ImageViewer;
 
 import java.awt.image.BufferedImage;
+import java.util.Map;
 
 public class Operations {
-    private final boolean useHsb;
-    private final int scale;
-    private final int colorLevels;
-    private final double spread;
+    private final Pipeline pipeline;
     private final TYPE operation;
-    private final boolean rangeQ;
-    private final boolean grayscale;
-    private final int bayerDitherSize = 8;
     
     /**
      * Initializes the Operations instance with the desired configuration.
@@ -35,123 +27,101 @@ public class Operations {
      * @param grayscale Whether to convert the image to grayscale before processing.
      */
     public Operations(int colorLevels, int scale, double spread, boolean rangeQ, boolean useHsb, TYPE operation, boolean grayscale) {
-        this.colorLevels = colorLevels;
-        this.scale = scale;
-        this.spread = spread;
+        this(colorLevels, scale, spread, rangeQ, useHsb, operation, grayscale, WorkerPool.defaultThreads());
+    }
+    
+    /**
+     * Initializes the Operations instance with the desired configuration and
+     * the number of threads used by the parallel algorithms.
+     *
+     * @param colorLevels Number of quantization color levels.
+     * @param scale Scaling factor (for downscaling/upscaling).
+     * @param spread Error diffusion spread factor.
+     * @param rangeQ Whether to apply range quantization.
+     * @param useHsb Wheter to use RGB or HSB.
+     * @param operation Dithering algorithm type to use.
+     * @param grayscale Whether to convert the image to grayscale before processing.
+     * @param threads Number of threads, 1 to run everything on the calling thread.
+     */
+    public Operations(int colorLevels, int scale, double spread, boolean rangeQ, boolean useHsb, TYPE operation, boolean grayscale, int threads) {
+        this.pipeline = new Pipeline(colorLevels, scale, spread, rangeQ, useHsb, operation, grayscale, threads);
         this.operation = operation;
-        this.rangeQ = rangeQ;
-        this.useHsb = useHsb;
-        this.grayscale = grayscale;
     }
     
     /**
-     * Executes the full image processing pipeline.
+     * Executes the full image processing pipeline, prints the time of each
+     * stage and opens the result in the viewer.
      *
      * @param filePath Path to the image file to be processed.
      */
     public void processFile(String filePath) {
-        BufferedImage image = measureTime("Reading File", () -> readImage(filePath));
-        
-        if (scale > 1) {
-            final BufferedImage downInput = image;
-            image = measureTime("Scaling Image Down", () -> new Scaler().scaleDown(downInput, scale));
-        }
+        // Scaling down happens while decoding, only the kept pixels are read
+        PipelineResult result = pipeline.process(filePath);
         
-        final BufferedImage ditherInput = image;
-        measureTime("Applying Dither Pattern: " + operation, () -> applyDithering(ditherInput));
-
-        if (scale > 1) {
-            final BufferedImage upInput = image;
-            image = measureTime("Scaling Image Up", () -> new Scaler().scaleUp(upInput, scale));
+        if (result != null) {
+            view(filePath, result);
         }
-        
-        new ImageViewer(image, filePath, this);
-    }
-
-    private BufferedImage readImage(String path) {
-        return new PngReader().readPNG(path, grayscale);
     }
     
-    private void applyDithering(BufferedImage image) {
-        ColorQuantizer cq;
-        
-        if (useHsb) {
-            cq = new HsbQuantizer();
-        } else {
-            cq = new RgbQuantizer();
-        }
+    /**
+     * Prints the time of each stage of a processed image and opens it in the
+     * viewer, returning once the viewer is closed.
+     *
+     * @param filePath Path of the file the image was read from.
+     * @param result The image processed by this instance's pipeline.
+     */
+    public void view(String filePath, PipelineResult result) {
+        printTimes(result);
         
-        switch (operation) {
-            case Bayer8x8 -> {
-                new OrderedDithering(cq, bayerDitherSize, colorLevels, rangeQ, spread).applyDither(image);
-            }
-            case Floyd_Steinberg -> {
-                new DiffusionDithering(cq, colorLevels, rangeQ, spread).applyFloydSteinberg(image);
-            }
-            case JJN -> {
-                new DiffusionDithering(cq, colorLevels, rangeQ, spread).applyJarvisJudiceNinke(image);
-            }
-            case Stucki -> {
-                new DiffusionDithering(cq, colorLevels, rangeQ, spread).applyStucki(image);
-            }
-            case Atkinson -> {
-                new DiffusionDithering(cq, colorLevels, rangeQ, spread).applyAtkinson(image);
-            }
-            case Burkes -> {
-                new DiffusionDithering(cq, colorLevels, rangeQ, spread).applyBurkes(image);
-            }
-            case Sierra -> {
-                new DiffusionDithering(cq, colorLevels, rangeQ, spread).applySierra(image);
-            }
-            case Two_Row_Sierra -> {
-                new DiffusionDithering(cq, colorLevels, rangeQ, spread).applyTwoRowSierra(image);
-            }
-            case Sierra_Lite -> {
-                new DiffusionDithering(cq, colorLevels, rangeQ, spread).applySierraLite(image);
-            }
-            default -> {
-                cq.quantizeImage(image, colorLevels, rangeQ);
-            }
+        // The result stays at the reduced size, the viewer and the saved file
+        // enlarge it back on the fly
+        new ImageViewer(result.getImage(), filePath, this);
+    }
+    
+    /**
+     * Prints the time of each stage of a processed image.
+     *
+     * @param result The image processed by this instance's pipeline.
+     */
+    public void printTimes(PipelineResult result) {
+        for (Map.Entry<Stage, Long> time : result.getTimes().entrySet()) {
+            System.out.println(label(time.getKey()));
+            System.out.println("TIME: " + time.getValue() / 1_000_000 + "ms");
         }
     }
     
+    /**
+     * @return The engine running the stages, to process images without the
+     * viewer.
+     */
+    public Pipeline getPipeline() {
+        return pipeline;
+    }
+    
     /**
      * Saves the processed image to a file with a name that reflects the applied
-     * parameters.
+     * parameters, enlarged back by the scale factor while it is written.
      *
-     * @param image The image to be saved.
+     * @param image The image to be saved, at the reduced size.
      * @param filePath The original file path used as a base for the saved file.
+     * @return The path of the saved file, or null if it could not be written.
      */
-    public void saveImage(BufferedImage image, String filePath) {
-        String name = "Quantize[" + operation + "," + colorLevels + "," + scale + "," + spread + "]";
+    public String saveImage(BufferedImage image, String filePath) {
+        PipelineResult result = new PipelineResult(image, pipeline.getScale(), null, Map.of());
         
-        new PngSaver().saveToFile(name, filePath, image);
+        return pipeline.save(result, filePath, new PngSaver());
     }
-
-    private BufferedImage measureTime(String label, Timeable<BufferedImage> action) {
-        long start = System.currentTimeMillis();
-        
-        System.out.println(label);
-        BufferedImage result = action.execute();
-        
-        long end = System.currentTimeMillis();
-        System.out.println("TIME: " + (end - start) + "ms");
-        
-        return result;
-    }
-
-    private void measureTime(String label, Runnable action) {
-        long start = System.currentTimeMillis();
-        
-        System.out.println(label);
-        action.run();
-        
-        long end = System.currentTimeMillis();
-        System.out.println("TIME: " + (end - start) + "ms");
-    }
-
-    @FunctionalInterface
-    private interface Timeable<T> {
-        T execute();
+    
+    private String label(Stage stage) {
+        return switch (stage) {
+            case DECODE -> "Reading File";
+            case DITHER -> "Applying Dither Pattern: " + operation;
+            case PALETTE -> "Building Palette";
+            case ANALYZE -> "Measuring Range";
+            case GRAYSCALE -> "Converting to Grayscale";
+            case DOWNSCALE -> "Scaling Down";
+            case UPSCALE -> "Scaling Up";
+            case ENCODE -> "Writing File";
+        };
     }
 }
\ No newline at end of file
@@ -1,7 +1,10 @@
 package Dither;
 
-import Dither.Util.DataConverter;
 import Dither.Util.BayerCalculator;
+import Dither.Util.ParallelExecutor;
+import Dither.Util.RasterAccess;
+import Dither.Util.RasterAccess.RowOperation;
+import Dither.Util.VectorSupport;
 
 import Dither.Interface.ColorQuantizer;
 
@@ -11,7 +14,6 @@ public class OrderedDithering {
     private final int[][] bayerMatrix;
     private final double[][] normalizedBayer;
     private final ColorQuantizer quantizer;
-    private final DataConverter cd = new DataConverter();
     
     private final int bitValue;
     private final boolean rangeQ;
@@ -89,42 +91,142 @@ public class OrderedDithering {
      *
      * @param image the BufferedImage to be processed
      */
-    public void applyDither(BufferedImage image) {        
+    public void applyDither(BufferedImage image) {
+        applyDither(image, ParallelExecutor.serial());
+    }
+    
+    /**
+     * Applies ordered dithering and quantization to the provided image in
+     * place, splitting the rows with the given executor. Pixels do not depend
+     * on each other, so the result is the same as on a single thread.
+     *
+     * @param image the BufferedImage to be processed
+     * @param executor the executor running the rows
+     */
+    public void applyDither(BufferedImage image, ParallelExecutor executor) {
         if (rangeQ) {
             quantizer.prepare(image, bitValue);
         }
         
-        int w = image.getWidth(), h = image.getHeight();
         int n = normalizedBayer.length;
         
-        for (int y = 0; y < h; y++) {
-            for (int x = 0; x < w; x++) {
-                int[] rgba = cd.convertFromIntegerToArray(image.getRGB(x, y));
-                
-                double[] ch = new double[4];
+        if (RasterAccess.isGray(image)) {
+            // One plane, the offset gray value goes through the gray table
+            byte[] output = buildOutputTable(quantizer.grayTable(bitValue, rangeQ));
+            
+            executor.forEachGrayRow(image, (pixels, offset, length, y) -> {
+                int rowBase = (y % n) * n;
                 
-                for (int i = 1; i <= 3; i++) {
-                    ch[i] = rgba[i] / 255.0;
+                for (int x = 0; x < length; x++) {
+                    int cell = (rowBase + x % n) << 8;
+                    
+                    pixels[offset + x] = output[cell | (pixels[offset + x] & 0xFF)];
                 }
+            });
+            
+            return;
+        }
+        
+        byte[] channelTable = quantizer.channelTable(bitValue, rangeQ);
+        
+        if (channelTable != null) {
+            byte[] output = buildOutputTable(channelTable);
+            RowOperation vector = VectorSupport.orderedDither(offsets(),
+                    quantizer.channelQuantization(bitValue, rangeQ), output);
+            
+            if (vector != null) {
+                executor.forEachRow(image, vector);
                 
-                double d = normalizedBayer[y % n][x % n] * spread;
+                return;
+            }
+            
+            executor.forEachRow(image, (pixels, offset, length, y) -> {
+                int rowBase = (y % n) * n;
                 
-                for (int i = 1; i <= 3; i++) {
-                    double v = ch[i] + d;
-                    v = Math.min(1.0, Math.max(0.0, v));
-                    int raw = (int) (v * 255);
-                    
-                    int[] temp = rgba.clone();
-                    
-                    temp[i] = raw;
+                for (int x = 0; x < length; x++) {
+                    int cell = (rowBase + x % n) << 8;
+                    int argb = pixels[offset + x];
                     
-                    int[] qPixel = quantizer.quantize(temp, bitValue, rangeQ);
+                    int r = output[cell | ((argb >> 16) & 0xFF)] & 0xFF;
+                    int g = output[cell | ((argb >> 8) & 0xFF)] & 0xFF;
+                    int b = output[cell | (argb & 0xFF)] & 0xFF;
                     
-                    rgba[i] = qPixel[i];
+                    pixels[offset + x] = (argb & 0xFF000000) | (r << 16) | (g << 8) | b;
                 }
+            });
+            
+            return;
+        }
+        
+        executor.forEachRow(image, (pixels, offset, length, y) -> {
+            for (int x = 0; x < length; x++) {
+                pixels[offset + x] = ditherPixel(pixels[offset + x], normalizedBayer[y % n][x % n] * spread);
+            }
+        });
+    }
+    
+    /**
+     * With a quantizer that works per channel, or on a gray image, the output
+     * of a channel only depends on the Bayer cell and on the channel value, so
+     * every result is computed once here: entry (cell << 8 | value), cell =
+     * y * n + x, holds the quantized value of 'value' offset by that cell.
+     * That is n*n*256 bytes, 16 KB for 8x8.
+     */
+    private byte[] buildOutputTable(byte[] channelTable) {
+        int n = normalizedBayer.length;
+        byte[] output = new byte[n * n * 256];
+        
+        for (int y = 0; y < n; y++) {
+            for (int x = 0; x < n; x++) {
+                double d = normalizedBayer[y][x] * spread;
+                int cell = (y * n + x) << 8;
                 
-                image.setRGB(x, y, cd.convertFromArrayToInteger(rgba));
+                for (int value = 0; value < 256; value++) {
+                    output[cell | value] = channelTable[offsetChannel(value, d)];
+                }
+            }
+        }
+        
+        return output;
+    }
+    
+    private double[][] offsets() {
+        int n = normalizedBayer.length;
+        double[][] offsets = new double[n][n];
+        
+        for (int y = 0; y < n; y++) {
+            for (int x = 0; x < n; x++) {
+                offsets[y][x] = normalizedBayer[y][x] * spread;
             }
         }
+        
+        return offsets;
+    }
+    
+    private int offsetChannel(int value, double d) {
+        double v = value / 255.0 + d;
+        v = Math.min(1.0, Math.max(0.0, v));
+        
+        return (int) (v * 255);
+    }
+    
+    private int ditherPixel(int argb, double d) {
+        int out = argb;
+        
+        // Red, green, blue
+        for (int shift = 16; shift >= 0; shift -= 8) {
+            int raw = offsetChannel((argb >> shift) & 0xFF, d);
+            
+            int mask = 0xFF << shift;
+            
+            // Only this channel is offset, the ones before it are already quantized
+            int temp = (out & ~mask) | (raw << shift);
+            
+            int qPixel = quantizer.quantizeArgb(temp, bitValue, rangeQ);
+            
+            out = (out & ~mask) | (qPixel & mask);
+        }
+        
+        return out;
     }
 }
\ No newline at end of file
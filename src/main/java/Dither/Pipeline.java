@@ -0,0 +1,481 @@
+package Dither;
+
+import Dither.Util.LuminanceRangeCalculator;
+import Dither.Util.PaletteConverter;
+import Dither.Util.ParallelExecutor;
+import Dither.Util.Scaler;
+import Dither.Util.SegmentImage;
+import Dither.Util.TYPE;
+import Dither.Util.WorkerPool;
+import Dither.Interface.HsbQuantizer;
+import Dither.Interface.ColorQuantizer;
+import Dither.Interface.RgbQuantizer;
+
+import FileManager.BandReader;
+import FileManager.PngEncoder;
+import FileManager.PngReader;
+import FileManager.PngSaver;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * The dithering engine shared by the window and the command line: decode →
+ * grayscale → downscale → analyze → dither → palette → upscale → encode.
+ *
+ * Each stage is a public method, and process runs them in order on a file
+ * or on an image already in memory, returning the dithered image with the
+ * time spent in each stage. Nothing is printed and no window is opened, and
+ * a Pipeline holds no per-image state, so one instance can process several
+ * images at the same time.
+ */
+public class Pipeline {
+    /**
+     * The stages, in the order they run.
+     */
+    public enum Stage {
+        DECODE, GRAYSCALE, DOWNSCALE, ANALYZE, DITHER, PALETTE, UPSCALE, ENCODE
+    }
+
+    private final int colorLevels;
+    private final int scale;
+    private final double spread;
+    private final boolean rangeQ;
+    private final boolean useHsb;
+    private final TYPE operation;
+    private final boolean grayscale;
+    private final int threads;
+    private final int bayerDitherSize = 8;
+
+    /**
+     * Creates a pipeline with the given settings, using every worker thread.
+     *
+     * @param colorLevels Number of quantization color levels.
+     * @param scale Pixel size, the image is processed at 1/scale of its size.
+     * @param spread Error diffusion spread factor.
+     * @param rangeQ Whether to apply range quantization.
+     * @param useHsb Wheter to use RGB or HSB.
+     * @param operation Dithering algorithm type to use.
+     * @param grayscale Whether to convert the image to grayscale before processing.
+     */
+    public Pipeline(int colorLevels, int scale, double spread, boolean rangeQ, boolean useHsb, TYPE operation, boolean grayscale) {
+        this(colorLevels, scale, spread, rangeQ, useHsb, operation, grayscale, WorkerPool.defaultThreads());
+    }
+
+    /**
+     * Creates a pipeline with the given settings and number of threads used
+     * by the parallel algorithms.
+     *
+     * @param colorLevels Number of quantization color levels.
+     * @param scale Pixel size, the image is processed at 1/scale of its size.
+     * @param spread Error diffusion spread factor.
+     * @param rangeQ Whether to apply range quantization.
+     * @param useHsb Wheter to use RGB or HSB.
+     * @param operation Dithering algorithm type to use.
+     * @param grayscale Whether to convert the image to grayscale before processing.
+     * @param threads Number of threads, 1 to run everything on the calling thread.
+     * @throws IllegalArgumentException if scale or threads is less than 1
+     */
+    public Pipeline(int colorLevels, int scale, double spread, boolean rangeQ, boolean useHsb, TYPE operation, boolean grayscale, int threads) {
+        if (scale < 1) {
+            throw new IllegalArgumentException("Scale must be at least 1");
+        }
+
+        if (threads < 1) {
+            throw new IllegalArgumentException("Threads must be at least 1");
+        }
+
+        this.colorLevels = colorLevels;
+        this.scale = scale;
+        this.spread = spread;
+        this.rangeQ = rangeQ;
+        this.useHsb = useHsb;
+        this.operation = operation;
+        this.grayscale = grayscale;
+        this.threads = threads;
+    }
+
+    /**
+     * Runs every stage up to the palette on an image file. Grayscale and
+     * downscale happen inside the decoder, which only reads the pixels kept.
+     *
+     * @param filePath Path to the image file to be processed.
+     * @return The result, or null if the file could not be read.
+     */
+    public PipelineResult process(String filePath) {
+        Map<Stage, Long> times = new EnumMap<>(Stage.class);
+        BufferedImage image = read(filePath, times);
+
+        if (image == null) {
+            return null;
+        }
+
+        return finish(image, times);
+    }
+
+    // The stages of process(String) before and after dithering starts, run
+    // apart by BatchPipeline
+    BufferedImage read(String filePath, Map<Stage, Long> times) {
+        return time(times, Stage.DECODE, () -> decode(filePath));
+    }
+
+    /**
+     * Runs every stage up to the palette on an image already in memory.
+     *
+     * @param image The image to be processed, left untouched.
+     * @return The result.
+     * @throws IllegalArgumentException if the image is smaller than the scale
+     */
+    public PipelineResult process(BufferedImage image) {
+        Map<Stage, Long> times = new EnumMap<>(Stage.class);
+
+        // Downscaled first, the same pixels end up gray with fewer to convert
+        BufferedImage small = time(times, Stage.DOWNSCALE, () -> downscale(image));
+        BufferedImage gray = time(times, Stage.GRAYSCALE, () -> grayscale(small));
+
+        // Dithering works in place, the caller's image must stay as it is
+        BufferedImage working = gray != image ? gray : copy(image);
+
+        return finish(working, times);
+    }
+
+    PipelineResult finish(BufferedImage image, Map<Stage, Long> times) {
+        double[] range = time(times, Stage.ANALYZE, () -> analyze(image));
+
+        time(times, Stage.DITHER, () -> {
+            dither(image, range);
+
+            return image;
+        });
+
+        BufferedImage result = time(times, Stage.PALETTE, () -> palette(image));
+
+        return new PipelineResult(result, scale, range, times);
+    }
+
+    /**
+     * Writes the result as a PNG, enlarged back by the scale factor while it
+     * is encoded. The time spent is added to the result.
+     *
+     * @param result A result of this pipeline.
+     * @param out The stream to write to, left open.
+     * @param encoder The encoder to write with.
+     * @throws IOException if writing fails
+     */
+    public void encode(PipelineResult result, OutputStream out, PngEncoder encoder) throws IOException {
+        RenderedImage output = upscale(result);
+        long start = System.nanoTime();
+
+        encoder.write(output, out);
+
+        result.addTime(Stage.ENCODE, System.nanoTime() - start);
+    }
+
+    /**
+     * Saves the result next to the original file, with a name that reflects
+     * the applied parameters. The time spent is added to the result.
+     *
+     * @param result A result of this pipeline.
+     * @param filePath The original file path used as a base for the saved file.
+     * @param saver The saver to write with.
+     * @return The path of the saved file, or null if it could not be written.
+     */
+    public String save(PipelineResult result, String filePath, PngSaver saver) {
+        RenderedImage output = upscale(result);
+        long start = System.nanoTime();
+
+        String saved = saver.saveToFile(outputName(), filePath, output);
+
+        result.addTime(Stage.ENCODE, System.nanoTime() - start);
+
+        return saved;
+    }
+
+    /**
+     * Runs every stage on an image file one band of rows at a time and
+     * writes it as a PNG, enlarged back by the scale factor, for images too
+     * large to hold in memory. The result is the same as process and encode
+     * for files whose pixels process reads as ARGB or 8 bit gray, but it is
+     * always written as gray, RGB or RGBA: the colors needed for a palette are
+     * only known once the last row is written.
+     *
+     * @param filePath Path to the image file to be processed.
+     * @param out The stream to write to, left open.
+     * @param encoder The encoder to write with.
+     * @throws IOException if reading or writing fails
+     * @throws IllegalArgumentException if the image is smaller than the scale
+     */
+    public void stream(String filePath, OutputStream out, PngEncoder encoder) throws IOException {
+        BandStreamer streamer = streamer();
+
+        try (BandReader reader = BandReader.open(filePath, scale)) {
+            BandStreamer.Scan scan = scan(streamer, reader, filePath);
+
+            streamer.stream(reader, scan, out, encoder);
+        }
+    }
+
+    /**
+     * Streams an image file like stream, saving it next to the original one
+     * with the same name as save.
+     *
+     * @param filePath Path to the image file to be processed.
+     * @param saver The saver to write with.
+     * @return The path of the saved file, or null if it could not be read or
+     * written.
+     * @throws IllegalArgumentException if the image is smaller than the scale
+     */
+    public String streamToFile(String filePath, PngSaver saver) {
+        BandStreamer streamer = streamer();
+
+        // Opened before the output file is created, a file that cannot be
+        // read leaves nothing behind
+        try (BandReader reader = BandReader.open(filePath, scale)) {
+            BandStreamer.Scan scan = scan(streamer, reader, filePath);
+
+            return saver.saveToFile(outputName(), filePath, (encoder, out) -> streamer.stream(reader, scan, out, encoder));
+        } catch (IOException e) {
+            System.err.println("Error when reading image: " + filePath + ": " + e.getMessage());
+
+            return null;
+        }
+    }
+
+    /**
+     * Decode, grayscale and downscale stages for images too large for a
+     * BufferedImage or the heap: the file is decoded band by band into an
+     * image outside of the heap, in native memory or in a temporary file
+     * mapped in memory. Gray images are stored as ARGB.
+     *
+     * @param filePath Path to the image file.
+     * @param mapped Whether to map the image from a temporary file rather
+     * than allocate native memory, for images larger than the memory.
+     * @return The image, to be closed once done with.
+     * @throws IOException if reading fails
+     * @throws IllegalArgumentException if the image is smaller than the scale
+     */
+    public SegmentImage load(String filePath, boolean mapped) throws IOException {
+        try (BandReader reader = BandReader.open(filePath, scale)) {
+            int width = reader.getWidth();
+            int height = reader.getHeight();
+
+            SegmentImage image = mapped
+                    ? SegmentImage.mapTemporary(width, height, reader.hasAlpha())
+                    : SegmentImage.allocate(width, height, reader.hasAlpha());
+
+            try {
+                streamer().load(reader, image);
+            } catch (IOException | RuntimeException e) {
+                image.close();
+
+                throw e;
+            }
+
+            return image;
+        }
+    }
+
+    /**
+     * Analyze and dither stages on an image outside of the heap, in place,
+     * one band of rows at a time.
+     *
+     * @param image The image to dither.
+     * @return The range used, or null if range quantization is off.
+     */
+    public double[] dither(SegmentImage image) {
+        return streamer().dither(image);
+    }
+
+    /**
+     * Writes an image outside of the heap as a PNG, enlarged back by the
+     * scale factor, as RGB or RGBA.
+     *
+     * @param image The dithered image.
+     * @param out The stream to write to, left open.
+     * @param encoder The encoder to write with.
+     * @throws IOException if writing fails
+     */
+    public void encode(SegmentImage image, OutputStream out, PngEncoder encoder) throws IOException {
+        streamer().encode(image, out, encoder);
+    }
+
+    private BandStreamer streamer() {
+        return new BandStreamer(this, quantizer(), colorLevels, scale, spread, rangeQ, useHsb, operation, grayscale,
+                threads, bayerDitherSize);
+    }
+
+    // A first pass over the file with a reader of its own, when needed
+    private BandStreamer.Scan scan(BandStreamer streamer, BandReader reader, String filePath) throws IOException {
+        if (!streamer.needsScan(reader)) {
+            return null;
+        }
+
+        try (BandReader first = BandReader.open(filePath, scale)) {
+            return streamer.scan(first);
+        }
+    }
+
+    /**
+     * @return the name added to saved files, made of the parameters
+     */
+    public String outputName() {
+        return "Quantize[" + operation + "," + colorLevels + "," + scale + "," + spread + "]";
+    }
+
+    /**
+     * @return the pixel size images are reduced by
+     */
+    public int getScale() {
+        return scale;
+    }
+
+    /**
+     * Decode stage: reads the file already converted and reduced.
+     *
+     * @param filePath Path to the image file.
+     * @return The image, or null if the file could not be read.
+     * @throws IllegalArgumentException if the image is smaller than the scale
+     */
+    public BufferedImage decode(String filePath) {
+        return new PngReader().readPNG(filePath, grayscale, scale);
+    }
+
+    /**
+     * Grayscale stage, when enabled.
+     *
+     * @param image The image to convert, left untouched.
+     * @return A new grayscale image, or the image itself if grayscale is off.
+     */
+    public BufferedImage grayscale(BufferedImage image) {
+        return grayscale ? new PngReader().toGrayscale(image) : image;
+    }
+
+    /**
+     * Downscale stage: keeps the top-left pixel of every scale × scale block.
+     *
+     * @param image The image to reduce, left untouched.
+     * @return A new reduced image, or the image itself if the scale is 1.
+     * @throws IllegalArgumentException if the image is smaller than the scale
+     */
+    public BufferedImage downscale(BufferedImage image) {
+        if (image.getWidth() < scale || image.getHeight() < scale) {
+            throw new IllegalArgumentException("Image is smaller than the scale " + scale);
+        }
+
+        return new Scaler().scaleDown(image, scale);
+    }
+
+    /**
+     * Analyze stage: measures the luminance, or brightness with HSB, range
+     * used by range quantization.
+     *
+     * @param image The image to measure.
+     * @return [min, max], or null if range quantization is off.
+     */
+    public double[] analyze(BufferedImage image) {
+        return rangeQ ? LuminanceRangeCalculator.compute(image, useHsb) : null;
+    }
+
+    /**
+     * Dither stage: applies the dithering algorithm in place.
+     *
+     * @param image The image to dither.
+     * @param range The range from analyze, or null to measure it if needed.
+     */
+    public void dither(BufferedImage image, double[] range) {
+        ColorQuantizer cq = quantizer();
+
+        cq.setRange(range);
+
+        // Falls back to the calling thread by itself on small images
+        ParallelExecutor executor = new ParallelExecutor(threads);
+
+        switch (operation) {
+            case Bayer8x8 -> {
+                new OrderedDithering(cq, bayerDitherSize, colorLevels, rangeQ, spread).applyDither(image, executor);
+            }
+            case Floyd_Steinberg -> {
+                new DiffusionDithering(cq, colorLevels, rangeQ, spread, threads).applyFloydSteinberg(image);
+            }
+            case JJN -> {
+                new DiffusionDithering(cq, colorLevels, rangeQ, spread, threads).applyJarvisJudiceNinke(image);
+            }
+            case Stucki -> {
+                new DiffusionDithering(cq, colorLevels, rangeQ, spread, threads).applyStucki(image);
+            }
+            case Atkinson -> {
+                new DiffusionDithering(cq, colorLevels, rangeQ, spread, threads).applyAtkinson(image);
+            }
+            case Burkes -> {
+                new DiffusionDithering(cq, colorLevels, rangeQ, spread, threads).applyBurkes(image);
+            }
+            case Sierra -> {
+                new DiffusionDithering(cq, colorLevels, rangeQ, spread, threads).applySierra(image);
+            }
+            case Two_Row_Sierra -> {
+                new DiffusionDithering(cq, colorLevels, rangeQ, spread, threads).applyTwoRowSierra(image);
+            }
+            case Sierra_Lite -> {
+                new DiffusionDithering(cq, colorLevels, rangeQ, spread, threads).applySierraLite(image);
+            }
+            default -> {
+                cq.quantizeImage(image, colorLevels, rangeQ, executor);
+            }
+        }
+    }
+
+    /**
+     * Palette stage: keeps the result as a palette image when its colors fit
+     * in one.
+     *
+     * @param image The dithered image.
+     * @return The indexed image, or the image itself if it has too many colors.
+     */
+    public BufferedImage palette(BufferedImage image) {
+        BufferedImage indexed = PaletteConverter.toIndexed(image);
+
+        return indexed != null ? indexed : image;
+    }
+
+    /**
+     * Upscale stage: enlarges the result back by the scale factor. Only a
+     * view is created, pixels are expanded as the encoder reads them.
+     *
+     * @param result A result of this pipeline.
+     * @return The image at full size.
+     */
+    public RenderedImage upscale(PipelineResult result) {
+        long start = System.nanoTime();
+        RenderedImage output = result.getOutput();
+
+        result.addTime(Stage.UPSCALE, System.nanoTime() - start);
+
+        return output;
+    }
+
+    private ColorQuantizer quantizer() {
+        if (useHsb) {
+            return new HsbQuantizer();
+        }
+
+        return new RgbQuantizer();
+    }
+
+    private static BufferedImage copy(BufferedImage image) {
+        return new BufferedImage(image.getColorModel(), image.copyData(null), image.isAlphaPremultiplied(), null);
+    }
+
+    private static <T> T time(Map<Stage, Long> times, Stage stage, Supplier<T> action) {
+        long start = System.nanoTime();
+        T result = action.get();
+
+        times.put(stage, System.nanoTime() - start);
+
+        return result;
+    }
+}
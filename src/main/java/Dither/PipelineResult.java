@@ -0,0 +1,82 @@
+package Dither;
+
+import Dither.Pipeline.Stage;
+import Dither.Util.UpscaledImage;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.util.EnumMap;
+import java.util.Map;
+
+public class PipelineResult {
+    private final BufferedImage image;
+    private final int scale;
+    private final double[] range;
+    private final Map<Stage, Long> times;
+
+    PipelineResult(BufferedImage image, int scale, double[] range, Map<Stage, Long> times) {
+        this.image = image;
+        this.scale = scale;
+        this.range = range;
+        this.times = new EnumMap<>(times);
+    }
+
+    /**
+     * @return the dithered image at the reduced size, as a palette image when
+     * its colors fit in one
+     */
+    public BufferedImage getImage() {
+        return image;
+    }
+
+    /**
+     * @return the image at full size as it is saved, enlarged on the fly when
+     * the scale is above 1
+     */
+    public RenderedImage getOutput() {
+        return scale > 1 ? new UpscaledImage(image, scale) : image;
+    }
+
+    /**
+     * @return the pixel size the image was reduced by
+     */
+    public int getScale() {
+        return scale;
+    }
+
+    /**
+     * @return the number of pixels of the output, at full size
+     */
+    public long getOutputPixels() {
+        return (long) image.getWidth() * image.getHeight() * scale * scale;
+    }
+
+    /**
+     * @return the [min, max] range measured by the analyze stage, or null if
+     * range quantization is off
+     */
+    public double[] getRange() {
+        return range != null ? range.clone() : null;
+    }
+
+    /**
+     * @param stage a pipeline stage
+     * @return the time spent in the stage in nanoseconds, 0 if it did not run
+     */
+    public synchronized long getNanos(Stage stage) {
+        return times.getOrDefault(stage, 0L);
+    }
+
+    /**
+     * @return the time spent in each stage that ran, in nanoseconds and in
+     * pipeline order
+     */
+    public synchronized Map<Stage, Long> getTimes() {
+        return new EnumMap<>(times);
+    }
+
+    // Encoding happens after the result is handed out, possibly on another thread
+    synchronized void addTime(Stage stage, long nanos) {
+        times.merge(stage, nanos, Long::sum);
+    }
+}
@@ -1,10 +1,12 @@
 package Dither;
 
-import FileManager.Grayscale;
+import Dither.Util.LuminanceRangeCalculator;
+import Dither.Util.RasterAccess;
 import java.awt.image.BufferedImage;
 
 public class Quantization {
     private final int min = 2, max = 256;
+    private final RgbQuantization tables = new RgbQuantization();
     
     /**
      * Applies color quantization to the given image, choosing between simple
@@ -34,24 +36,7 @@ public class Quantization {
             throw new IllegalArgumentException("Color quantity for quantization must be between " + min + " and " + max);
         }
 
-        int width = image.getWidth();
-        int height = image.getHeight();
-        
-        ConvertRgbaInteger cri = new ConvertRgbaInteger();
-        
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int[] rgba = cri.convertFromIntegerToArray(image.getRGB(x, y));
-
-                rgba[1] = quantizeChannel(rgba[1], levels); // R
-                rgba[2] = quantizeChannel(rgba[2], levels); // G
-                rgba[3] = quantizeChannel(rgba[3], levels); // B
-//                rgba[0] = quantizeChannel(rgba[0], levels); // A
-
-                int newRGBA = cri.convertFromArrayToInteger(rgba);
-                image.setRGB(x, y, newRGBA);
-            }
-        }
+        applyTable(image, tables.uniformTable(levels));
     }
     
     /**
@@ -70,27 +55,22 @@ public class Quantization {
     }
     
     private void dynamicRangeQuantization(BufferedImage image, int levels) {
-        int width = image.getWidth();
-        int height = image.getHeight();
-        
-        ConvertRgbaInteger cri = new ConvertRgbaInteger();
-        
         double[] range = computeSymmetricLuminanceRange(image);
         double newMin = range[0];
         double newMax = range[1];
         
         // Quantize
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int[] rgba = cri.convertFromIntegerToArray(image.getRGB(x, y));
-                
-                for (int c = 1; c <= 3; c++) {
-                    rgba[c] = quantizeWithRange(rgba[c], levels, newMin, newMax);
-                }
-                
-                image.setRGB(x, y, cri.convertFromArrayToInteger(rgba));
+        applyTable(image, tables.rangeTable(levels, newMin, newMax));
+    }
+    
+    // Same math as quantizeChannel and quantizeWithRange, precomputed once per
+    // (levels, range) by RgbQuantization
+    private void applyTable(BufferedImage image, byte[] table) {
+        RasterAccess.forEachRow(image, 0, image.getHeight(), (pixels, offset, length, y) -> {
+            for (int i = offset; i < offset + length; i++) {
+                pixels[i] = tables.quantizeArgb(pixels[i], table);
             }
-        }
+        });
     }
     
     /**
@@ -101,39 +81,7 @@ public class Quantization {
      * @return a double array of size 2: [min, max]
      */
     public double[] computeSymmetricLuminanceRange(BufferedImage image) {
-        int width = image.getWidth();
-        int height = image.getHeight();
-        int totalPixels = width * height;
-
-        double minLum = Double.MAX_VALUE;
-        double maxLum = Double.MIN_VALUE;
-        double sumLum = 0.0;
-
-        ConvertRgbaInteger cri = new ConvertRgbaInteger();
-        Grayscale gs = new Grayscale();
-        
-        // Find the min/avg/max of image
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int[] rgba = cri.convertFromIntegerToArray(image.getRGB(x, y));
-                double lum = gs.bt709(rgba)[1]; // red
-
-                minLum = Math.min(minLum, lum);
-                maxLum = Math.max(maxLum, lum);
-                sumLum += lum;
-            }
-        }
-        
-        // Truncate min/max to be simmetric based on avg (avg becomes median)
-        double avgLum = sumLum / totalPixels;
-        double d1 = avgLum - minLum;
-        double d2 = maxLum - avgLum;
-        double d = Math.min(d1, d2);
-        
-        double newMin = avgLum - d;
-        double newMax = avgLum + d;
-        
-        return new double[]{newMin, newMax};
+        return LuminanceRangeCalculator.compute(image, false);
     }
     
     /**
@@ -1,14 +1,25 @@
 package Dither;
 
-import Dither.Util.DataConverter;
+import Dither.Util.ChannelQuantization;
 import Dither.Util.LuminanceRangeCalculator;
+import Dither.Util.ParallelExecutor;
+import Dither.Util.RasterAccess;
+import Dither.Util.RasterAccess.RowOperation;
+import Dither.Util.VectorSupport;
 
 import java.awt.image.BufferedImage;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntUnaryOperator;
 
 public class RgbQuantization {
-    private final DataConverter dc = new DataConverter();
+    // Lookup tables shared by every instance, so a batch of images quantized
+    // with the same parameters builds each table only once
+    private static final Map<TableKey, byte[]> TABLES = new ConcurrentHashMap<>();
+    private static final int MAX_TABLES = 4096;
+
     private final int min = 2, max = 256;
-    
+
     /**
      * Applies color quantization to the given image, choosing between simple
      * quantization and dynamic‐range quantization based on the rangeQ flag.
@@ -21,42 +32,47 @@ public class RgbQuantization {
      * @throws IllegalArgumentException if levels is outside the valid range
      */
     public void applyQuantization(BufferedImage image, int levels, boolean rangeQ) {
+        applyQuantization(image, levels, rangeQ, ParallelExecutor.serial());
+    }
+
+    /**
+     * Applies color quantization to the given image like
+     * applyQuantization(image, levels, rangeQ), splitting the rows with the
+     * given executor.
+     *
+     * @param image the BufferedImage to process
+     * @param levels the number of discrete color levels (must be between 2 and
+     * 256)
+     * @param rangeQ true to use dynamic range quantization, false for uniform
+     * color quantization
+     * @param executor the executor running the rows
+     * @throws IllegalArgumentException if levels is outside the valid range
+     */
+    public void applyQuantization(BufferedImage image, int levels, boolean rangeQ, ParallelExecutor executor) {
         if (levels < min || levels > max) {
             throw new IllegalArgumentException(
                     "Brightness levels must be between " + min + " and " + max
             );
         }
-        
+
         if (rangeQ) {
-            dynamicRangeQuantization(image, levels);
+            dynamicRangeQuantization(image, levels, executor);
         } else {
-            colorQuantization(image, levels);
+            colorQuantization(image, levels, executor);
         }
     }
-    
-    private void colorQuantization(BufferedImage image, int levels) {
-        int width = image.getWidth();
-        int height = image.getHeight();
-        
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int[] rgba = dc.convertFromIntegerToArray(image.getRGB(x, y));
-
-                rgba[1] = quantizeChannel(rgba[1], levels); // R
-                rgba[2] = quantizeChannel(rgba[2], levels); // G
-                rgba[3] = quantizeChannel(rgba[3], levels); // B
-//                rgba[0] = quantizeChannel(rgba[0], levels); // A
-
-                int newRGBA = dc.convertFromArrayToInteger(rgba);
-                image.setRGB(x, y, newRGBA);
-            }
-        }
+
+    private void colorQuantization(BufferedImage image, int levels, ParallelExecutor executor) {
+        applyTable(image, new ChannelQuantization(levels, false, 0, 0), uniformTable(levels), executor);
     }
-    
+
     /**
      * Maps a single 0–255 channel value to the nearest of the given number of
      * levels, rounding to the nearest level center.
      *
+     * This is the reference computation behind uniformTable; quantizing whole
+     * images goes through the table instead.
+     *
      * @param value the original channel intensity (0–255)
      * @param levels the number of quantization levels (must be ≥2)
      * @return the quantized channel value in the range 0–255
@@ -64,36 +80,51 @@ public class RgbQuantization {
     public int quantizeChannel(int value, int levels) {
         double color = value / 255.0;
         color = (Math.floor(color * (levels - 1) + 0.5)) / (levels - 1);
-        
+
         return (int) (color * 255);
     }
-    
-    private void dynamicRangeQuantization(BufferedImage image, int levels) {
-        int width = image.getWidth();
-        int height = image.getHeight();
-        
+
+    private void dynamicRangeQuantization(BufferedImage image, int levels, ParallelExecutor executor) {
         double[] range = LuminanceRangeCalculator.compute(image, false);
         double newMin = range[0];
         double newMax = range[1];
-        
+
         // Quantize
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int[] rgba = dc.convertFromIntegerToArray(image.getRGB(x, y));
-                
-                for (int c = 1; c <= 3; c++) {
-                    rgba[c] = quantizeWithRange(rgba[c], levels, newMin, newMax);
-                }
-                
-                image.setRGB(x, y, dc.convertFromArrayToInteger(rgba));
-            }
+        applyTable(image, new ChannelQuantization(levels, true, newMin, newMax),
+                rangeTable(levels, newMin, newMax), executor);
+    }
+
+    /**
+     * Applies dynamic-range quantization with a range measured beforehand,
+     * e.g. by LuminanceRangeCalculator.compute, instead of measuring the
+     * image again.
+     *
+     * @param image the BufferedImage to process
+     * @param levels the number of discrete color levels (must be between 2 and
+     * 256)
+     * @param rangeMin the lower bound of the luminance interval
+     * @param rangeMax the upper bound of the luminance interval
+     * @param executor the executor running the rows
+     * @throws IllegalArgumentException if levels is outside the valid range
+     */
+    public void applyRangeQuantization(BufferedImage image, int levels, double rangeMin, double rangeMax, ParallelExecutor executor) {
+        if (levels < min || levels > max) {
+            throw new IllegalArgumentException(
+                    "Brightness levels must be between " + min + " and " + max
+            );
         }
+
+        applyTable(image, new ChannelQuantization(levels, true, rangeMin, rangeMax),
+                rangeTable(levels, rangeMin, rangeMax), executor);
     }
-    
+
     /**
      * Quantizes a channel value within the specified [min, max] interval into
      * the given number of levels, then remaps it back to the 0–255 range.
      *
+     * This is the reference computation behind rangeTable; quantizing whole
+     * images goes through the table instead.
+     *
      * @param value the original channel intensity
      * @param levels the number of quantization levels
      * @param min the lower bound of the luminance interval
@@ -103,15 +134,109 @@ public class RgbQuantization {
     public int quantizeWithRange(int value, int levels, double min, double max) {
         // Clamp
         double v = Math.max(min, Math.min(max, value));
-        
+
         // Normalize
         double norm = (v - min) / (max - min);
-        
+
         // Quantize
         double qNorm = Math.floor(norm * (levels - 1) + 0.5) / (levels - 1);
         double quantized = qNorm * (max - min) + min;
-        
+
         // Back to 0-255
         return (int) Math.round((quantized - min) / (max - min) * 255);
     }
-}
\ No newline at end of file
+
+    /**
+     * Returns the 256-entry table of quantizeChannel for the given number of
+     * levels, building it on first use.
+     *
+     * @param levels the number of quantization levels (must be ≥2)
+     * @return table of quantized values, indexed by channel value (read entries
+     * with {@code & 0xFF})
+     */
+    public byte[] uniformTable(int levels) {
+        return table(new TableKey(levels, false, 0, 0), v -> quantizeChannel(v, levels));
+    }
+
+    /**
+     * Returns the 256-entry table of quantizeWithRange for the given levels and
+     * interval, building it on first use.
+     *
+     * @param levels the number of quantization levels
+     * @param min the lower bound of the luminance interval
+     * @param max the upper bound of the luminance interval
+     * @return table of quantized values, indexed by channel value (read entries
+     * with {@code & 0xFF})
+     */
+    public byte[] rangeTable(int levels, double min, double max) {
+        return table(new TableKey(levels, true, min, max), v -> quantizeWithRange(v, levels, min, max));
+    }
+
+    /**
+     * Maps the red, green and blue channels of a packed 0xAARRGGBB pixel
+     * through a quantization table, keeping its alpha.
+     *
+     * @param argb the packed pixel
+     * @param table a table from uniformTable or rangeTable
+     * @return the quantized pixel, packed as 0xAARRGGBB
+     */
+    public int quantizeArgb(int argb, byte[] table) {
+        int r = table[(argb >> 16) & 0xFF] & 0xFF;
+        int g = table[(argb >> 8) & 0xFF] & 0xFF;
+        int b = table[argb & 0xFF] & 0xFF;
+
+        return (argb & 0xFF000000) | (r << 16) | (g << 8) | b;
+    }
+
+    private void applyTable(BufferedImage image, ChannelQuantization quantization, byte[] table, ParallelExecutor executor) {
+        // A single gray channel, mapped through the same table
+        if (RasterAccess.isGray(image)) {
+            executor.forEachGrayRow(image, (pixels, offset, length, y) -> {
+                for (int i = offset; i < offset + length; i++) {
+                    pixels[i] = table[pixels[i] & 0xFF];
+                }
+            });
+
+            return;
+        }
+
+        RowOperation vector = VectorSupport.quantizer(quantization, table);
+
+        if (vector != null) {
+            executor.forEachRow(image, vector);
+
+            return;
+        }
+
+        executor.forEachRow(image, (pixels, offset, length, y) -> {
+            for (int i = offset; i < offset + length; i++) {
+                pixels[i] = quantizeArgb(pixels[i], table);
+            }
+        });
+    }
+
+    private byte[] table(TableKey key, IntUnaryOperator channel) {
+        byte[] table = TABLES.get(key);
+
+        if (table != null) {
+            return table;
+        }
+
+        // Range tables depend on each image, don't let a long batch grow the cache forever
+        if (TABLES.size() >= MAX_TABLES) {
+            TABLES.clear();
+        }
+
+        return TABLES.computeIfAbsent(key, k -> {
+            byte[] t = new byte[256];
+
+            for (int v = 0; v < 256; v++) {
+                t[v] = (byte) channel.applyAsInt(v);
+            }
+
+            return t;
+        });
+    }
+
+    private record TableKey(int levels, boolean range, double min, double max) { }
+}
@@ -0,0 +1,14 @@
+package Dither.Util;
+
+/**
+ * Describes how a quantizer maps each red, green and blue value on its own:
+ * uniformly into 'levels' steps, or into 'levels' steps of the [min, max]
+ * interval when 'range' is set. Vector kernels use it to compute the mapping
+ * arithmetically instead of through a lookup table.
+ *
+ * @param levels the number of quantization levels
+ * @param range true for dynamic-range quantization, false for uniform
+ * @param min the lower bound of the interval, used when range is true
+ * @param max the upper bound of the interval, used when range is true
+ */
+public record ChannelQuantization(int levels, boolean range, double min, double max) { }
@@ -0,0 +1,167 @@
+package Dither.Util;
+
+public class Histogram {
+    private final long[] counts;
+    private final double[] values;
+    private final long total;
+
+    /**
+     * Creates a histogram from bin counts and the value each bin stands for.
+     *
+     * @param counts number of samples in each bin
+     * @param values value of each bin, in increasing order
+     * @throws IllegalArgumentException if the arrays differ in length
+     */
+    public Histogram(long[] counts, double[] values) {
+        if (counts.length != values.length) {
+            throw new IllegalArgumentException("Expected one value per bin, got "
+                    + values.length + " values for " + counts.length + " bins");
+        }
+
+        this.counts = counts.clone();
+        this.values = values.clone();
+
+        long sum = 0;
+
+        for (long count : counts) {
+            sum += count;
+        }
+
+        this.total = sum;
+    }
+
+    /**
+     * @return the number of bins
+     */
+    public int bins() {
+        return counts.length;
+    }
+
+    /**
+     * @param bin the bin index
+     * @return the number of samples in the bin
+     */
+    public long count(int bin) {
+        return counts[bin];
+    }
+
+    /**
+     * @param bin the bin index
+     * @return the value the bin stands for
+     */
+    public double value(int bin) {
+        return values[bin];
+    }
+
+    /**
+     * @return the total number of samples
+     */
+    public long total() {
+        return total;
+    }
+
+    /**
+     * @return the smallest sample, or 0 if the histogram is empty
+     */
+    public double min() {
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] != 0) {
+                return values[i];
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * @return the largest sample, or 0 if the histogram is empty
+     */
+    public double max() {
+        for (int i = counts.length - 1; i >= 0; i--) {
+            if (counts[i] != 0) {
+                return values[i];
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * @return the average of all samples, or 0 if the histogram is empty
+     */
+    public double mean() {
+        if (total == 0) {
+            return 0;
+        }
+
+        double sum = 0;
+
+        for (int i = 0; i < counts.length; i++) {
+            sum += counts[i] * values[i];
+        }
+
+        return sum / total;
+    }
+
+    /**
+     * Returns the smallest sample such that at least the given fraction of
+     * all samples is less than or equal to it (nearest rank).
+     *
+     * @param fraction the fraction of samples, between 0 and 1
+     * @return the sample at that rank, or 0 if the histogram is empty
+     * @throws IllegalArgumentException if fraction is outside [0, 1]
+     */
+    public double percentile(double fraction) {
+        if (fraction < 0 || fraction > 1) {
+            throw new IllegalArgumentException("Percentile fraction must be between 0 and 1");
+        }
+
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+
+            if (seen >= rank) {
+                return values[i];
+            }
+        }
+
+        return max();
+    }
+
+    /**
+     * Computes a range [min, max] around the mean so that min and max are
+     * equidistant from it, the narrower of the two sides deciding the width.
+     *
+     * @return a double array of size 2: [min, max]
+     */
+    public double[] symmetricRange() {
+        double avg = mean();
+        double d = Math.min(avg - min(), max() - avg);
+
+        return new double[]{ avg - d, avg + d };
+    }
+
+    /**
+     * Computes a range between two percentiles, ignoring outliers at either
+     * end, e.g. percentileRange(0.01, 0.99).
+     *
+     * @param low the fraction of samples for the lower bound
+     * @param high the fraction of samples for the upper bound
+     * @return a double array of size 2: [min, max]
+     * @throws IllegalArgumentException if a fraction is outside [0, 1] or low
+     * is greater than high
+     */
+    public double[] percentileRange(double low, double high) {
+        if (low > high) {
+            throw new IllegalArgumentException("Lower percentile must not be greater than the upper one");
+        }
+
+        return new double[]{ percentile(low), percentile(high) };
+    }
+}
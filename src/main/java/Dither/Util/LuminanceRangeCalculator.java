@@ -1,10 +1,39 @@
 package Dither.Util;
 
-import FileManager.Grayscale;
-import java.awt.Color;
 import java.awt.image.BufferedImage;
+import java.util.concurrent.RecursiveTask;
 
 public class LuminanceRangeCalculator {
+    /**
+     * Number of histogram bins. BT.709 luminance is truncated to an integer
+     * and HSB brightness is the largest channel divided by 255, so both take
+     * exactly 256 distinct values and every bin holds a single one.
+     */
+    public static final int BINS = 256;
+
+    // Products of each channel value by its BT.709 weight, the int to double
+    // conversions cost more than the rest of the histogram
+    private static final double[] RED = new double[256];
+    private static final double[] GREEN = new double[256];
+    private static final double[] BLUE = new double[256];
+
+    // Bins of each value of single channel gray images
+    private static final int[] GRAY_LUMINANCE = new int[256];
+    private static final int[] GRAY_BRIGHTNESS = new int[256];
+
+    static {
+        for (int v = 0; v < 256; v++) {
+            RED[v] = v * 0.2126;
+            GREEN[v] = v * 0.7152;
+            BLUE[v] = v * 0.0722;
+        }
+
+        for (int v = 0; v < 256; v++) {
+            GRAY_LUMINANCE[v] = luminance(v * 0x010101);
+            GRAY_BRIGHTNESS[v] = v;
+        }
+    }
+
     /**
      * Computes a symmetric luminance range [min, max] around the average
      * luminance so that min and max are equidistant from the mean.
@@ -14,46 +43,111 @@ public class LuminanceRangeCalculator {
      * @return a double array of size 2: [min, max]
      */
     public static double[] compute(BufferedImage image, boolean useHsb) {
-        int width = image.getWidth();
+        return histogram(image, useHsb).symmetricRange();
+    }
+
+    /**
+     * Counts the luminance (BT.709, 0–255) or the HSB brightness (0–1) of
+     * every pixel. Strips of rows are counted in parallel on the shared
+     * WorkerPool, each into its own histogram, and merged at the end.
+     *
+     * @param image the BufferedImage from which luminance is measured
+     * @param useHsb whether to use brightness instead of luminance
+     * @return the histogram, with BINS bins
+     */
+    public static Histogram histogram(BufferedImage image, boolean useHsb) {
         int height = image.getHeight();
-        int totalPixels = width * height;
-
-        double minValue = Double.MAX_VALUE;
-        double maxValue = Double.MIN_VALUE;
-        double sumValue = 0.0;
-
-        DataConverter dc = new DataConverter();
-        Grayscale gs = new Grayscale();
-        
-        // Find the min/avg/max of image
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                double value;
-                
-                if (useHsb) {
-                    Color c = new Color(image.getRGB(x, y));
-                    float[] hsb = Color.RGBtoHSB(c.getRed(), c.getGreen(), c.getBlue(), null);
-                    value = hsb[2];
+        long pixels = (long) image.getWidth() * height;
+        int threads = WorkerPool.defaultThreads();
+
+        int rows = Math.max(ParallelExecutor.DEFAULT_STRIP_ROWS, (height + threads - 1) / threads);
+
+        HistogramTask task = new HistogramTask(image, useHsb, 0, height, rows);
+        long[] counts = threads == 1 || pixels < ParallelExecutor.DEFAULT_MIN_PIXELS || rows >= height
+                ? task.compute()
+                : WorkerPool.get().invoke(task);
+
+        double[] values = new double[BINS];
+
+        for (int i = 0; i < BINS; i++) {
+            // Same float brightness as Color.RGBtoHSB
+            values[i] = useHsb ? ((float) i) / 255.0f : i;
+        }
+
+        return new Histogram(counts, values);
+    }
+
+    // Same weights, order and truncation as Grayscale.bt709
+    private static int luminance(int argb) {
+        return (int) (RED[(argb >> 16) & 0xFF] + GREEN[(argb >> 8) & 0xFF] + BLUE[argb & 0xFF]);
+    }
+
+    private static int brightness(int argb) {
+        return Math.max((argb >> 16) & 0xFF, Math.max((argb >> 8) & 0xFF, argb & 0xFF));
+    }
+
+    @SuppressWarnings("serial")
+    private static class HistogramTask extends RecursiveTask<long[]> {
+        private final BufferedImage image;
+        private final boolean useHsb;
+        private final int y0, y1;
+        private final int rows;
+
+        HistogramTask(BufferedImage image, boolean useHsb, int y0, int y1, int rows) {
+            this.image = image;
+            this.useHsb = useHsb;
+            this.y0 = y0;
+            this.y1 = y1;
+            this.rows = rows;
+        }
+
+        @Override
+        protected long[] compute() {
+            if (y1 - y0 <= rows) {
+                long[] counts = new long[BINS];
+
+                if (RasterAccess.isGray(image)) {
+                    // Brightness of gray is gray itself, luminance goes through
+                    // the same weights as three equal channels
+                    int[] bins = useHsb ? GRAY_BRIGHTNESS : GRAY_LUMINANCE;
+
+                    RasterAccess.readGrayRows(image, y0, y1, (pixels, offset, length, y) -> {
+                        for (int i = offset; i < offset + length; i++) {
+                            counts[bins[pixels[i] & 0xFF]]++;
+                        }
+                    });
+                } else if (useHsb) {
+                    RasterAccess.readRows(image, y0, y1, (pixels, offset, length, y) -> {
+                        for (int i = offset; i < offset + length; i++) {
+                            counts[brightness(pixels[i])]++;
+                        }
+                    });
                 } else {
-                    int[] rgba = dc.convertFromIntegerToArray(image.getRGB(x, y));
-                    value = gs.bt709(rgba)[1];
+                    RasterAccess.readRows(image, y0, y1, (pixels, offset, length, y) -> {
+                        for (int i = offset; i < offset + length; i++) {
+                            counts[luminance(pixels[i])]++;
+                        }
+                    });
                 }
 
-                minValue = Math.min(minValue, value);
-                maxValue = Math.max(maxValue, value);
-                sumValue += value;
+                return counts;
             }
-        }
 
-        // Build symmetric range around mean
-        double avgValue = sumValue / totalPixels;
-        double d1 = avgValue - minValue;
-        double d2 = maxValue - avgValue;
-        double d = Math.min(d1, d2);
+            int strips = (y1 - y0 + rows - 1) / rows;
+            int mid = y0 + (strips / 2) * rows;
 
-        double newMin = avgValue - d;
-        double newMax = avgValue + d;
+            HistogramTask top = new HistogramTask(image, useHsb, y0, mid, rows);
+            HistogramTask bottom = new HistogramTask(image, useHsb, mid, y1, rows);
 
-        return new double[]{ newMin, newMax };
+            bottom.fork();
+            long[] counts = top.compute();
+            long[] other = bottom.join();
+
+            for (int i = 0; i < BINS; i++) {
+                counts[i] += other[i];
+            }
+
+            return counts;
+        }
     }
-}
\ No newline at end of file
+}
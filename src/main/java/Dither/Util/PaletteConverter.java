@@ -0,0 +1,238 @@
+package Dither.Util;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.util.Arrays;
+
+public class PaletteConverter {
+    /**
+     * Largest palette an indexed image can hold.
+     */
+    public static final int MAX_COLORS = 256;
+
+    /**
+     * Converts an image with at most 256 distinct colors to an indexed image
+     * using as few bits per pixel as the palette allows: TYPE_BYTE_BINARY at
+     * 1, 2 or 4 bits, TYPE_BYTE_INDEXED at 8. Image writers then store it as a
+     * palette PNG of the same depth.
+     *
+     * Dithered images only hold the colors of their quantization levels, so
+     * they usually qualify; the palette is found by scanning the pixels, in
+     * order of first appearance, alpha included.
+     *
+     * @param image the image to convert
+     * @return the indexed image, the image itself if it already has an
+     * IndexColorModel, or null if it has more than 256 colors
+     */
+    public static BufferedImage toIndexed(BufferedImage image) {
+        if (image.getColorModel() instanceof IndexColorModel) {
+            return image;
+        }
+
+        ColorTable colors = new ColorTable();
+        byte[] indices = collect(image, colors);
+
+        if (indices == null) {
+            return null;
+        }
+
+        int[] palette = colors.palette();
+        int bits = bitsFor(palette.length);
+
+        boolean alpha = false;
+
+        for (int argb : palette) {
+            alpha |= (argb >>> 24) != 0xFF;
+        }
+
+        IndexColorModel model = new IndexColorModel(bits, palette.length, palette, 0, alpha, -1, DataBuffer.TYPE_BYTE);
+
+        BufferedImage out = bits == 8
+                ? new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_BYTE_INDEXED, model)
+                : new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_BYTE_BINARY, model);
+
+        pack(out, indices, bits);
+
+        return out;
+    }
+
+    /**
+     * @param colors the number of palette entries, 1 to 256
+     * @return the smallest PNG palette depth holding that many colors: 1, 2, 4
+     * or 8
+     */
+    public static int bitsFor(int colors) {
+        if (colors <= 2) {
+            return 1;
+        } else if (colors <= 4) {
+            return 2;
+        } else if (colors <= 16) {
+            return 4;
+        }
+
+        return 8;
+    }
+
+    // The palette entry of every pixel, or null as soon as the palette
+    // overflows. Each row is indexed into a buffer before it is kept, so
+    // images with too many colors, which usually overflow within the first
+    // row, stop there without allocating the indices of the whole image
+    private static byte[] collect(BufferedImage image, ColorTable colors) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        boolean gray = RasterAccess.isGray(image);
+        byte[] grayPixels = RasterAccess.getGrayPixels(image);
+        int[] packed = RasterAccess.getPackedPixels(image);
+        byte[] grayRow = gray && grayPixels == null ? new byte[width] : null;
+        int[] argbRow = !gray && packed == null ? new int[width] : null;
+        byte[] row = new byte[width];
+        byte[] indices = null;
+
+        // Packed RGB rasters leave the alpha byte empty
+        int opaque = image.getColorModel().hasAlpha() ? 0 : 0xFF000000;
+
+        for (int y = 0; y < height; y++) {
+            boolean fits;
+
+            if (gray) {
+                if (grayPixels != null) {
+                    fits = indexGray(grayPixels, y * width, width, colors, row);
+                } else {
+                    image.getRaster().getDataElements(0, y, width, 1, grayRow);
+                    fits = indexGray(grayRow, 0, width, colors, row);
+                }
+            } else {
+                if (packed != null) {
+                    fits = index(packed, y * width, width, opaque, colors, row);
+                } else {
+                    image.getRGB(0, y, width, 1, argbRow, 0, width);
+                    fits = index(argbRow, 0, width, opaque, colors, row);
+                }
+            }
+
+            if (!fits) {
+                return null;
+            }
+
+            if (indices == null) {
+                indices = new byte[width * height];
+            }
+
+            System.arraycopy(row, 0, indices, y * width, width);
+        }
+
+        return indices;
+    }
+
+    // Indexes one row of 0xAARRGGBB pixels, false if the palette overflows
+    private static boolean index(int[] pixels, int offset, int length, int opaque, ColorTable colors, byte[] row) {
+        for (int x = 0; x < length; x++) {
+            int index = colors.indexOf(pixels[offset + x] | opaque);
+
+            if (index < 0) {
+                return false;
+            }
+
+            row[x] = (byte) index;
+        }
+
+        return true;
+    }
+
+    // Indexes one row of gray bytes, false if the palette overflows
+    private static boolean indexGray(byte[] pixels, int offset, int length, ColorTable colors, byte[] row) {
+        for (int x = 0; x < length; x++) {
+            int index = colors.indexOf(0xFF000000 | ((pixels[offset + x] & 0xFF) * 0x010101));
+
+            if (index < 0) {
+                return false;
+            }
+
+            row[x] = (byte) index;
+        }
+
+        return true;
+    }
+
+    // Writes the indices into the raster, several pixels per byte below 8 bits
+    private static void pack(BufferedImage image, byte[] indices, int bits) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        byte[] data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+
+        if (bits == 8) {
+            System.arraycopy(indices, 0, data, 0, indices.length);
+
+            return;
+        }
+
+        int stride = ((MultiPixelPackedSampleModel) image.getSampleModel()).getScanlineStride();
+        int perByte = 8 / bits;
+
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            int out = y * stride;
+
+            // Leftmost pixel in the most significant bits, as PNG stores them
+            for (int x = 0; x < width; x += perByte) {
+                int packed = 0;
+
+                for (int i = 0; i < perByte; i++) {
+                    int index = x + i < width ? indices[row + x + i] & 0xFF : 0;
+
+                    packed |= index << (8 - bits * (i + 1));
+                }
+
+                data[out + x / perByte] = (byte) packed;
+            }
+        }
+    }
+
+    /**
+     * Open addressing map from packed color to palette index, sized so it
+     * never fills up before the palette does.
+     */
+    private static class ColorTable {
+        private static final int SLOTS = 1024;
+        private static final int EMPTY = -1;
+
+        private final int[] keys = new int[SLOTS];
+        private final int[] values = new int[SLOTS];
+        private final int[] palette = new int[MAX_COLORS];
+        private int size = 0;
+
+        ColorTable() {
+            Arrays.fill(values, EMPTY);
+        }
+
+        // Index of the color, added if new, or -1 if the palette is full
+        int indexOf(int argb) {
+            int slot = (argb * 0x9E3779B9) >>> 22;
+
+            while (values[slot] != EMPTY) {
+                if (keys[slot] == argb) {
+                    return values[slot];
+                }
+
+                slot = (slot + 1) & (SLOTS - 1);
+            }
+
+            if (size == MAX_COLORS) {
+                return -1;
+            }
+
+            keys[slot] = argb;
+            values[slot] = size;
+            palette[size] = argb;
+
+            return size++;
+        }
+
+        int[] palette() {
+            return Arrays.copyOf(palette, size);
+        }
+    }
+}
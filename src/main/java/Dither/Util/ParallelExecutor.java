@@ -0,0 +1,133 @@
+package Dither.Util;
+
+import Dither.Util.RasterAccess.GrayRowOperation;
+import Dither.Util.RasterAccess.RowOperation;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.RecursiveAction;
+
+public class ParallelExecutor {
+    /**
+     * Default minimum number of rows handled by one task.
+     */
+    public static final int DEFAULT_STRIP_ROWS = 32;
+
+    /**
+     * Default image size, in pixels, below which work stays on the calling
+     * thread because splitting it costs more than it saves.
+     */
+    public static final long DEFAULT_MIN_PIXELS = 512 * 512;
+
+    private static final ParallelExecutor SERIAL = new ParallelExecutor(1);
+
+    private final int threads;
+    private final int stripRows;
+    private final long minPixels;
+
+    /**
+     * Creates an executor with the default granularity.
+     *
+     * @param threads maximum number of strips processed at the same time, 1
+     * to always run on the calling thread
+     */
+    public ParallelExecutor(int threads) {
+        this(threads, DEFAULT_STRIP_ROWS, DEFAULT_MIN_PIXELS);
+    }
+
+    /**
+     * Creates an executor for algorithms with no dependency between pixels,
+     * splitting images into horizontal strips run on the shared WorkerPool.
+     *
+     * @param threads maximum number of strips processed at the same time, 1
+     * to always run on the calling thread
+     * @param stripRows minimum number of rows per strip
+     * @param minPixels images with fewer pixels are processed on the calling
+     * thread
+     */
+    public ParallelExecutor(int threads, int stripRows, long minPixels) {
+        this.threads = Math.max(1, threads);
+        this.stripRows = Math.max(1, stripRows);
+        this.minPixels = minPixels;
+    }
+
+    /**
+     * @return an executor that runs everything on the calling thread
+     */
+    public static ParallelExecutor serial() {
+        return SERIAL;
+    }
+
+    /**
+     * Runs an operation on every row of the image as packed 0xAARRGGBB pixels,
+     * see RasterAccess.forEachRow. Strips run concurrently, so the operation
+     * must not depend on other rows or on shared mutable state.
+     *
+     * @param image the BufferedImage to process
+     * @param operation the operation applied to each row, in place
+     */
+    public void forEachRow(BufferedImage image, RowOperation operation) {
+        forEachStrip(image, (y0, y1) -> RasterAccess.forEachRow(image, y0, y1, operation));
+    }
+
+    /**
+     * Runs an operation on every row of a gray image, one byte per pixel, see
+     * RasterAccess.forEachGrayRow. Strips run concurrently, like forEachRow.
+     *
+     * @param image a TYPE_BYTE_GRAY BufferedImage
+     * @param operation the operation applied to each row, in place
+     */
+    public void forEachGrayRow(BufferedImage image, GrayRowOperation operation) {
+        forEachStrip(image, (y0, y1) -> RasterAccess.forEachGrayRow(image, y0, y1, operation));
+    }
+
+    private void forEachStrip(BufferedImage image, Strip strip) {
+        int height = image.getHeight();
+        long pixels = (long) image.getWidth() * height;
+
+        // Never more strips than threads, never smaller strips than stripRows
+        int rows = Math.max(stripRows, (height + threads - 1) / threads);
+
+        if (threads == 1 || pixels < minPixels || rows >= height) {
+            strip.run(0, height);
+
+            return;
+        }
+
+        WorkerPool.get().invoke(new StripTask(0, height, rows, strip));
+    }
+
+    @FunctionalInterface
+    private interface Strip {
+        void run(int y0, int y1);
+    }
+
+    @SuppressWarnings("serial")
+    private static class StripTask extends RecursiveAction {
+        private final int y0, y1;
+        private final int rows;
+        private final Strip strip;
+
+        StripTask(int y0, int y1, int rows, Strip strip) {
+            this.y0 = y0;
+            this.y1 = y1;
+            this.rows = rows;
+            this.strip = strip;
+        }
+
+        @Override
+        protected void compute() {
+            if (y1 - y0 <= rows) {
+                strip.run(y0, y1);
+
+                return;
+            }
+
+            // Split on a strip boundary so every leaf but the last is exactly 'rows' tall
+            int strips = (y1 - y0 + rows - 1) / rows;
+            int mid = y0 + (strips / 2) * rows;
+
+            invokeAll(new StripTask(y0, mid, rows, strip),
+                    new StripTask(mid, y1, rows, strip));
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package Dither.Util;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+public class RasterAccess {
+    /**
+     * Returns the packed pixel array backing the image when it can be used
+     * directly, that is, when the image stores one 0xAARRGGBB (or 0x00RRGGBB)
+     * integer per pixel in rows of exactly image width, starting at index 0.
+     *
+     * Writing to the returned array changes the image without going through
+     * getRGB/setRGB and its color model conversion.
+     *
+     * @param image the BufferedImage to access
+     * @return the backing int array, or null if the image layout is not a
+     * plain packed ARGB/RGB raster
+     */
+    public static int[] getPackedPixels(BufferedImage image) {
+        int type = image.getType();
+
+        if (type != BufferedImage.TYPE_INT_ARGB && type != BufferedImage.TYPE_INT_RGB) {
+            return null;
+        }
+
+        Raster raster = image.getRaster();
+
+        if (raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0) {
+            return null;
+        }
+
+        if (!(raster.getSampleModel() instanceof SinglePixelPackedSampleModel sm)
+                || sm.getScanlineStride() != image.getWidth()) {
+            return null;
+        }
+
+        DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+
+        if (buffer.getOffset() != 0 || buffer.getNumBanks() != 1) {
+            return null;
+        }
+
+        return buffer.getData();
+    }
+
+    /**
+     * Tells whether the image stores a single gray byte per pixel, in which
+     * case it should go through the gray row methods: getRGB and setRGB treat
+     * those bytes as linear gray and convert them, where image writers and
+     * drawImage use them as they are.
+     *
+     * @param image the BufferedImage to check
+     * @return true for TYPE_BYTE_GRAY images
+     */
+    public static boolean isGray(BufferedImage image) {
+        return image.getType() == BufferedImage.TYPE_BYTE_GRAY;
+    }
+
+    /**
+     * Returns the byte array backing a gray image when it can be used
+     * directly, that is, one byte per pixel in rows of exactly image width,
+     * starting at index 0.
+     *
+     * @param image the BufferedImage to access
+     * @return the backing byte array, or null if the image is not a plain
+     * TYPE_BYTE_GRAY raster
+     */
+    public static byte[] getGrayPixels(BufferedImage image) {
+        if (!isGray(image)) {
+            return null;
+        }
+
+        Raster raster = image.getRaster();
+
+        if (raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0) {
+            return null;
+        }
+
+        if (!(raster.getSampleModel() instanceof PixelInterleavedSampleModel sm)
+                || sm.getScanlineStride() != image.getWidth() || sm.getPixelStride() != 1) {
+            return null;
+        }
+
+        DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+
+        if (buffer.getOffset() != 0 || buffer.getNumBanks() != 1) {
+            return null;
+        }
+
+        return buffer.getData();
+    }
+
+    /**
+     * Runs an operation on every row in [y0, y1) of a gray image, one byte
+     * per pixel. Plain rasters are handed over directly; any other layout is
+     * copied to a row buffer and written back after each row, without color
+     * conversion.
+     *
+     * @param image a TYPE_BYTE_GRAY BufferedImage
+     * @param y0 first row, inclusive
+     * @param y1 last row, exclusive
+     * @param operation the operation applied to each row, in place
+     */
+    public static void forEachGrayRow(BufferedImage image, int y0, int y1, GrayRowOperation operation) {
+        int width = image.getWidth();
+        byte[] pixels = getGrayPixels(image);
+
+        if (pixels != null) {
+            for (int y = y0; y < y1; y++) {
+                operation.apply(pixels, y * width, width, y);
+            }
+
+            return;
+        }
+
+        WritableRaster raster = image.getRaster();
+        byte[] row = new byte[width];
+
+        for (int y = y0; y < y1; y++) {
+            raster.getDataElements(0, y, width, 1, row);
+            operation.apply(row, 0, width, y);
+            raster.setDataElements(0, y, width, 1, row);
+        }
+    }
+
+    /**
+     * Runs an operation on every row in [y0, y1) of a gray image, like
+     * forEachGrayRow, for operations that only read them.
+     *
+     * @param image a TYPE_BYTE_GRAY BufferedImage
+     * @param y0 first row, inclusive
+     * @param y1 last row, exclusive
+     * @param operation the operation applied to each row, must not modify it
+     */
+    public static void readGrayRows(BufferedImage image, int y0, int y1, GrayRowOperation operation) {
+        int width = image.getWidth();
+        byte[] pixels = getGrayPixels(image);
+
+        if (pixels != null) {
+            for (int y = y0; y < y1; y++) {
+                operation.apply(pixels, y * width, width, y);
+            }
+
+            return;
+        }
+
+        Raster raster = image.getRaster();
+        byte[] row = new byte[width];
+
+        for (int y = y0; y < y1; y++) {
+            raster.getDataElements(0, y, width, 1, row);
+            operation.apply(row, 0, width, y);
+        }
+    }
+
+    /**
+     * Runs an operation on every row in [y0, y1) as packed 0xAARRGGBB pixels.
+     *
+     * Packed images are handed over directly; any other layout is copied to a
+     * row buffer with getRGB and written back with setRGB after each row.
+     *
+     * @param image the BufferedImage to process
+     * @param y0 first row, inclusive
+     * @param y1 last row, exclusive
+     * @param operation the operation applied to each row, in place
+     */
+    public static void forEachRow(BufferedImage image, int y0, int y1, RowOperation operation) {
+        int width = image.getWidth();
+        int[] pixels = getPackedPixels(image);
+
+        if (pixels != null) {
+            for (int y = y0; y < y1; y++) {
+                operation.apply(pixels, y * width, width, y);
+            }
+
+            return;
+        }
+
+        int[] row = new int[width];
+
+        for (int y = y0; y < y1; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            operation.apply(row, 0, width, y);
+            image.setRGB(0, y, width, 1, row, 0, width);
+        }
+    }
+
+    /**
+     * Runs an operation on every row in [y0, y1) as packed 0xAARRGGBB pixels,
+     * like forEachRow, for operations that only read them. Rows copied from
+     * other layouts are not written back.
+     *
+     * @param image the BufferedImage to read
+     * @param y0 first row, inclusive
+     * @param y1 last row, exclusive
+     * @param operation the operation applied to each row, must not modify it
+     */
+    public static void readRows(BufferedImage image, int y0, int y1, RowOperation operation) {
+        int width = image.getWidth();
+        int[] pixels = getPackedPixels(image);
+
+        if (pixels != null) {
+            for (int y = y0; y < y1; y++) {
+                operation.apply(pixels, y * width, width, y);
+            }
+
+            return;
+        }
+
+        int[] row = new int[width];
+
+        for (int y = y0; y < y1; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            operation.apply(row, 0, width, y);
+        }
+    }
+
+    @FunctionalInterface
+    public interface RowOperation {
+        /**
+         * Processes one row of packed 0xAARRGGBB pixels in place.
+         *
+         * @param pixels the array holding the row
+         * @param offset index of the first pixel of the row
+         * @param length number of pixels in the row
+         * @param y the row number in the image
+         */
+        void apply(int[] pixels, int offset, int length, int y);
+    }
+
+    @FunctionalInterface
+    public interface GrayRowOperation {
+        /**
+         * Processes one row of gray pixels, one byte each, in place.
+         *
+         * @param pixels the array holding the row (read values with
+         * {@code & 0xFF})
+         * @param offset index of the first pixel of the row
+         * @param length number of pixels in the row
+         * @param y the row number in the image
+         */
+        void apply(byte[] pixels, int offset, int length, int y);
+    }
+}
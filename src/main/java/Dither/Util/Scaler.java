@@ -1,12 +1,16 @@
 package Dither.Util;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
 
 public class Scaler {
     /**
      * Scales the given image down by the specified integer factor using
      * nearest-neighbor sampling.
      *
+     * Pixels are copied as stored, so gray and custom layouts keep their
+     * exact values and type.
+     *
      * @param image the original BufferedImage to be downscaled
      * @param scale the integer factor (>1) by which to reduce width and height
      * @return a new BufferedImage scaled down by the factor, or the original if
@@ -20,25 +24,31 @@ public class Scaler {
         int scaledWidth = image.getWidth() / scale;
         int scaledHeight = image.getHeight() / scale;
 
-        BufferedImage scaledImage = new BufferedImage(scaledWidth, scaledHeight, image.getType());
+        WritableRaster src = image.getRaster();
+        WritableRaster dst = src.createCompatibleWritableRaster(scaledWidth, scaledHeight);
+
+        Object pixel = null;
 
         for (int y = 0; y < scaledHeight; y++) {
             for (int x = 0; x < scaledWidth; x++) {
                 int origX = x * scale;
                 int origY = y * scale;
 
-                int rgb = image.getRGB(origX, origY);
-                scaledImage.setRGB(x, y, rgb);
+                pixel = src.getDataElements(origX, origY, pixel);
+                dst.setDataElements(x, y, pixel);
             }
         }
 
-        return scaledImage;
+        return new BufferedImage(image.getColorModel(), dst, image.isAlphaPremultiplied(), null);
     }
     
     /**
      * Scales the given image up by the specified integer factor using
      * nearest-neighbor sampling.
      *
+     * This allocates scale² times the memory of the image; to only display or
+     * save the enlarged image, use UpscaledImage instead.
+     *
      * @param image the original BufferedImage to be upscaled
      * @param scale the integer factor (>1) by which to multiply width and
      * height
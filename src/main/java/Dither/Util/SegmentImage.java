@@ -0,0 +1,239 @@
+package Dither.Util;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An image of packed 0xAARRGGBB pixels stored in a MemorySegment instead of
+ * a Java array, either in native memory or mapped from a file. It is not
+ * limited to 2^31 pixels like a BufferedImage, and the garbage collector
+ * never copies or scans its pixels however large it is.
+ *
+ * Pixels are accessed by rows, copied to and from int arrays, so that the
+ * dithering engines work on it as on any other image one band of rows at a
+ * time. The memory is released by close; the image must not be used after.
+ */
+public class SegmentImage implements AutoCloseable {
+    private static final long PIXEL_BYTES = ValueLayout.JAVA_INT.byteSize();
+
+    private final Arena arena;
+    private final MemorySegment pixels;
+    private final int width, height;
+    private final boolean alpha;
+    private final Path temporary;
+
+    private SegmentImage(Arena arena, MemorySegment pixels, int width, int height, boolean alpha, Path temporary) {
+        this.arena = arena;
+        this.pixels = pixels;
+        this.width = width;
+        this.height = height;
+        this.alpha = alpha;
+        this.temporary = temporary;
+    }
+
+    /**
+     * Allocates an image in native memory, outside of the Java heap. Pixels
+     * start as 0, transparent black.
+     *
+     * @param width the width in pixels
+     * @param height the height in pixels
+     * @param alpha whether the pixels use their alpha, saved as RGBA if so
+     * @return the image, to be closed once done with
+     * @throws IllegalArgumentException if the size is not positive
+     */
+    public static SegmentImage allocate(int width, int height, boolean alpha) {
+        long bytes = byteSize(width, height);
+        Arena arena = Arena.ofShared();
+
+        return new SegmentImage(arena, arena.allocate(bytes, PIXEL_BYTES), width, height, alpha, null);
+    }
+
+    /**
+     * Maps an image from a file, created or resized to fit it. The operating
+     * system pages pixels in and out of the file as they are used, so the
+     * image may be larger than the memory. The file is kept when the image
+     * is closed; its content is in the native byte order, without a header.
+     *
+     * @param file the file holding the pixels
+     * @param width the width in pixels
+     * @param height the height in pixels
+     * @param alpha whether the pixels use their alpha, saved as RGBA if so
+     * @return the image, to be closed once done with
+     * @throws IOException if the file cannot be created or mapped
+     * @throws IllegalArgumentException if the size is not positive
+     */
+    public static SegmentImage map(Path file, int width, int height, boolean alpha) throws IOException {
+        return map(file, width, height, alpha, null);
+    }
+
+    /**
+     * Maps an image from a new temporary file, deleted when the image is
+     * closed. Like map, for images larger than the memory.
+     *
+     * @param width the width in pixels
+     * @param height the height in pixels
+     * @param alpha whether the pixels use their alpha, saved as RGBA if so
+     * @return the image, to be closed once done with
+     * @throws IOException if the file cannot be created or mapped
+     * @throws IllegalArgumentException if the size is not positive
+     */
+    public static SegmentImage mapTemporary(int width, int height, boolean alpha) throws IOException {
+        Path file = Files.createTempFile("dither", ".raw");
+
+        try {
+            return map(file, width, height, alpha, file);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(file);
+
+            throw e;
+        }
+    }
+
+    private static SegmentImage map(Path file, int width, int height, boolean alpha, Path temporary) throws IOException {
+        long bytes = byteSize(width, height);
+        Arena arena = Arena.ofShared();
+
+        // The mapping stays valid once the channel is closed
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            channel.truncate(bytes);
+
+            MemorySegment pixels = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes, arena);
+
+            return new SegmentImage(arena, pixels, width, height, alpha, temporary);
+        } catch (IOException | RuntimeException e) {
+            arena.close();
+
+            throw e;
+        }
+    }
+
+    private static long byteSize(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Image must not be empty: " + width + "x" + height);
+        }
+
+        return (long) width * height * PIXEL_BYTES;
+    }
+
+    /**
+     * @return the width in pixels
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return the height in pixels
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return the number of pixels, which may exceed Integer.MAX_VALUE
+     */
+    public long getPixelCount() {
+        return (long) width * height;
+    }
+
+    /**
+     * @return whether the pixels use their alpha
+     */
+    public boolean hasAlpha() {
+        return alpha;
+    }
+
+    /**
+     * Returns the segment holding the pixels, row after row, one native order
+     * int each, for code that works on it directly.
+     *
+     * @return the pixel segment
+     */
+    public MemorySegment segment() {
+        return pixels;
+    }
+
+    /**
+     * @param x the column
+     * @param y the row
+     * @return the pixel as 0xAARRGGBB
+     */
+    public int getPixel(int x, int y) {
+        return pixels.getAtIndex(ValueLayout.JAVA_INT, index(x, y));
+    }
+
+    /**
+     * @param x the column
+     * @param y the row
+     * @param argb the pixel as 0xAARRGGBB
+     */
+    public void setPixel(int x, int y, int argb) {
+        pixels.setAtIndex(ValueLayout.JAVA_INT, index(x, y), argb);
+    }
+
+    /**
+     * Copies rows into an array, row after row.
+     *
+     * @param y the first row
+     * @param rows the number of rows
+     * @param dst the array to copy to
+     * @param offset index in the array of the first pixel
+     * @throws IndexOutOfBoundsException if the rows or the array are too short
+     */
+    public void readRows(int y, int rows, int[] dst, int offset) {
+        checkRows(y, rows);
+
+        MemorySegment.copy(pixels, ValueLayout.JAVA_INT, index(0, y) * PIXEL_BYTES, dst, offset, rows * width);
+    }
+
+    /**
+     * Copies rows from an array, row after row.
+     *
+     * @param y the first row
+     * @param rows the number of rows
+     * @param src the array to copy from
+     * @param offset index in the array of the first pixel
+     * @throws IndexOutOfBoundsException if the rows or the array are too short
+     */
+    public void writeRows(int y, int rows, int[] src, int offset) {
+        checkRows(y, rows);
+
+        MemorySegment.copy(src, offset, pixels, ValueLayout.JAVA_INT, index(0, y) * PIXEL_BYTES, rows * width);
+    }
+
+    /**
+     * Releases the memory or unmaps the file, and deletes the temporary file
+     * of mapTemporary.
+     *
+     * @throws IOException if the temporary file cannot be deleted
+     */
+    @Override
+    public void close() throws IOException {
+        arena.close();
+
+        if (temporary != null) {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private long index(int x, int y) {
+        if (x < 0 || x >= width || y < 0 || y >= height) {
+            throw new IndexOutOfBoundsException("Pixel (" + x + ", " + y + ") outside of " + width + "x" + height);
+        }
+
+        return (long) y * width + x;
+    }
+
+    private void checkRows(int y, int rows) {
+        if (y < 0 || rows < 0 || y + rows > height || (long) rows * width > Integer.MAX_VALUE) {
+            throw new IndexOutOfBoundsException("Rows " + y + " to " + (y + rows) + " outside of " + height);
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package Dither.Util;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.lang.reflect.Array;
+import java.util.Vector;
+
+/**
+ * A nearest-neighbor enlargement of an image that only exists as a view: each
+ * pixel of the source stands for a scale × scale block, and pixels are
+ * expanded when a region is requested. Image writers ask for one row at a
+ * time, so the enlarged image is never held in memory as a whole.
+ *
+ * Tiles are strips of scale rows, one row of the source each, so consumers
+ * that work tile by tile never expand more than one strip either, and the
+ * enlarged image may have more pixels than fit in a single raster.
+ */
+public class UpscaledImage implements RenderedImage {
+    private final BufferedImage source;
+    private final int scale;
+    private final int width, height;
+    private final SampleModel sampleModel;
+
+    /**
+     * Creates a view of the image enlarged by the given factor.
+     *
+     * @param source the image to enlarge
+     * @param scale the integer factor (≥1) by which to multiply width and
+     * height
+     * @throws IllegalArgumentException if scale is less than 1 or the enlarged
+     * size does not fit in an int
+     */
+    public UpscaledImage(BufferedImage source, int scale) {
+        if (scale < 1) {
+            throw new IllegalArgumentException("Scale must be at least 1");
+        }
+
+        long w = (long) source.getWidth() * scale;
+        long h = (long) source.getHeight() * scale;
+
+        if (w > Integer.MAX_VALUE || h > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Upscaled image is too large: " + w + "x" + h);
+        }
+
+        this.source = source;
+        this.scale = scale;
+        this.width = (int) w;
+        this.height = (int) h;
+
+        // The layout of a strip, no pixels are allocated until a region is
+        // requested
+        this.sampleModel = source.getSampleModel().createCompatibleSampleModel(width, scale);
+    }
+
+    /**
+     * @return the image being enlarged
+     */
+    public BufferedImage getSource() {
+        return source;
+    }
+
+    /**
+     * @return the enlargement factor
+     */
+    public int getScale() {
+        return scale;
+    }
+
+    @Override
+    public Raster getData(Rectangle rect) {
+        Rectangle region = rect.intersection(new Rectangle(0, 0, width, height));
+
+        if (region.isEmpty()) {
+            throw new IllegalArgumentException("Region " + rect + " is outside the image");
+        }
+
+        WritableRaster raster = Raster.createWritableRaster(
+                sampleModel.createCompatibleSampleModel(region.width, region.height),
+                region.getLocation());
+
+        copyRegion(raster, region);
+
+        return raster;
+    }
+
+    @Override
+    public Raster getData() {
+        return getData(new Rectangle(0, 0, width, height));
+    }
+
+    @Override
+    public WritableRaster copyData(WritableRaster raster) {
+        if (raster == null) {
+            return (WritableRaster) getData();
+        }
+
+        Rectangle region = raster.getBounds().intersection(new Rectangle(0, 0, width, height));
+
+        if (!region.isEmpty()) {
+            copyRegion(raster, region);
+        }
+
+        return raster;
+    }
+
+    // Expands each source row once into a row buffer, then writes it whole
+    // for every output row it covers
+    private void copyRegion(WritableRaster raster, Rectangle region) {
+        Raster src = source.getRaster();
+        int elements = src.getNumDataElements();
+        int x1 = region.x + region.width;
+        int sx0 = region.x / scale;
+        int sx1 = (x1 - 1) / scale + 1;
+
+        Object sourceRow = null;
+        Object row = null;
+        int expanded = -1;
+
+        for (int y = region.y; y < region.y + region.height; y++) {
+            int sy = y / scale;
+
+            if (sy != expanded) {
+                sourceRow = src.getDataElements(sx0, sy, sx1 - sx0, 1, sourceRow);
+
+                if (row == null) {
+                    row = Array.newInstance(sourceRow.getClass().getComponentType(), region.width * elements);
+                }
+
+                expand(sourceRow, sx0, row, region.x, x1, elements);
+                expanded = sy;
+            }
+
+            raster.setDataElements(region.x, y, region.width, 1, row);
+        }
+    }
+
+    // Repeats every source pixel of the row over its columns in [x0, x1),
+    // the source row starting at column sx0
+    private void expand(Object sourceRow, int sx0, Object row, int x0, int x1, int elements) {
+        for (int x = x0; x < x1; ) {
+            int sx = x / scale;
+            int end = Math.min(x1, (sx + 1) * scale);
+            int start = (x - x0) * elements;
+            int length = (end - x) * elements;
+
+            System.arraycopy(sourceRow, (sx - sx0) * elements, row, start, elements);
+
+            // Doubles the copied run until the block is filled
+            for (int filled = elements; filled < length; filled *= 2) {
+                System.arraycopy(row, start, row, start + filled, Math.min(filled, length - filled));
+            }
+
+            x = end;
+        }
+    }
+
+    // Strip tileY is the expansion of source row tileY
+
+    @Override
+    public Raster getTile(int tileX, int tileY) {
+        if (tileX != 0 || tileY < 0 || tileY >= source.getHeight()) {
+            throw new IllegalArgumentException("No tile (" + tileX + ", " + tileY + ")");
+        }
+
+        return getData(new Rectangle(0, tileY * scale, width, scale));
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public int getMinX() {
+        return 0;
+    }
+
+    @Override
+    public int getMinY() {
+        return 0;
+    }
+
+    @Override
+    public int getNumXTiles() {
+        return 1;
+    }
+
+    @Override
+    public int getNumYTiles() {
+        return source.getHeight();
+    }
+
+    @Override
+    public int getMinTileX() {
+        return 0;
+    }
+
+    @Override
+    public int getMinTileY() {
+        return 0;
+    }
+
+    @Override
+    public int getTileWidth() {
+        return width;
+    }
+
+    @Override
+    public int getTileHeight() {
+        return scale;
+    }
+
+    @Override
+    public int getTileGridXOffset() {
+        return 0;
+    }
+
+    @Override
+    public int getTileGridYOffset() {
+        return 0;
+    }
+
+    @Override
+    public SampleModel getSampleModel() {
+        return sampleModel;
+    }
+
+    @Override
+    public ColorModel getColorModel() {
+        return source.getColorModel();
+    }
+
+    @Override
+    public Vector<RenderedImage> getSources() {
+        return null;
+    }
+
+    @Override
+    public Object getProperty(String name) {
+        return source.getProperty(name);
+    }
+
+    @Override
+    public String[] getPropertyNames() {
+        return source.getPropertyNames();
+    }
+}
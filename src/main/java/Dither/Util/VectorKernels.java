@@ -0,0 +1,256 @@
+package Dither.Util;
+
+import Dither.Util.RasterAccess.RowOperation;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.util.function.Predicate;
+
+/**
+ * SIMD versions of the per-channel quantization and ordered dithering loops.
+ * Only reached through VectorSupport, so this class and the incubator module
+ * are never loaded when the module is missing.
+ *
+ * The kernels work in float, where the scalar code works in double, so every
+ * kernel is compared with the scalar table for all its inputs when it is
+ * built, and not used if any single value differs.
+ */
+class VectorKernels {
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+
+    // Adding 1.5 * 2^23 to a float rounds it to an integer held in the low
+    // bits of its mantissa, exact for anything in [-2^22, 2^22)
+    private static final float ROUNDING = 0x1.8p23f;
+
+    // Bias added before that rounding when a level goes back to 0-255. The
+    // scalar code truncates (uniform) or rounds half up (range) after double
+    // arithmetic that can land just below or above an exact result, so both
+    // sides are tried. 1/1024 is below 1/510, the closest any other level
+    // gets to a rounding boundary
+    private static final float[] TRUNCATE = { -0.5f + 1f / 1024, -0.5f - 1f / 1024 };
+    private static final float[] ROUND = { 1f / 1024, -1f / 1024 };
+
+    static RowOperation quantizer(ChannelQuantization quantization, byte[] table) {
+        Mapping m = mapping(quantization, mapping -> matches(mapping, table));
+
+        if (m == null) {
+            return null;
+        }
+
+        return (pixels, offset, length, y) -> {
+            int end = offset + length;
+            int upper = offset + INTS.loopBound(length);
+
+            // One pass per channel, the row stays in cache and each loop
+            // stays small enough for the JIT to keep the vectors in registers
+            for (int shift = 16; shift >= 0; shift -= 8) {
+                quantizeChannel(m, pixels, offset, upper, shift);
+            }
+
+            for (int i = upper; i < end; i++) {
+                int argb = pixels[i];
+
+                int r = table[(argb >> 16) & 0xFF] & 0xFF;
+                int g = table[(argb >> 8) & 0xFF] & 0xFF;
+                int b = table[argb & 0xFF] & 0xFF;
+
+                pixels[i] = (argb & 0xFF000000) | (r << 16) | (g << 8) | b;
+            }
+        };
+    }
+
+    static RowOperation orderedDither(double[][] offsets, ChannelQuantization quantization, byte[] output) {
+        int n = offsets.length;
+        Mapping m = mapping(quantization, mapping -> matches(mapping, offsets, output));
+
+        if (m == null) {
+            return null;
+        }
+
+        // Offsets of each matrix row repeated until the pattern is also a
+        // whole number of vectors, so it can be loaded one vector at a time
+        int period = n;
+
+        while (period % FLOATS.length() != 0) {
+            period += n;
+        }
+
+        float[][] patterns = new float[n][period];
+
+        for (int y = 0; y < n; y++) {
+            for (int x = 0; x < patterns[y].length; x++) {
+                patterns[y][x] = (float) (offsets[y][x % n] * 255);
+            }
+        }
+
+        return (pixels, offset, length, y) -> {
+            float[] pattern = patterns[y % n];
+            int rowBase = (y % n) * n;
+            int upper = INTS.loopBound(length);
+
+            for (int shift = 16; shift >= 0; shift -= 8) {
+                ditherChannel(m, pattern, pixels, offset, upper, shift);
+            }
+
+            for (int x = upper; x < length; x++) {
+                int cell = (rowBase + x % n) << 8;
+                int argb = pixels[offset + x];
+
+                int r = output[cell | ((argb >> 16) & 0xFF)] & 0xFF;
+                int g = output[cell | ((argb >> 8) & 0xFF)] & 0xFF;
+                int b = output[cell | (argb & 0xFF)] & 0xFF;
+
+                pixels[offset + x] = (argb & 0xFF000000) | (r << 16) | (g << 8) | b;
+            }
+        };
+    }
+
+    private static Mapping mapping(ChannelQuantization quantization, Predicate<Mapping> exact) {
+        for (float bias : quantization.range() ? ROUND : TRUNCATE) {
+            Mapping mapping = new Mapping(quantization, bias);
+
+            if (exact.test(mapping)) {
+                return mapping;
+            }
+        }
+
+        return null;
+    }
+
+    private static boolean matches(Mapping mapping, byte[] table) {
+        for (int v = 0; v < 256; v++) {
+            if (mapping.map(v) != (table[v] & 0xFF)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean matches(Mapping mapping, double[][] offsets, byte[] output) {
+        int n = offsets.length;
+
+        for (int y = 0; y < n; y++) {
+            for (int x = 0; x < n; x++) {
+                float d = (float) (offsets[y][x] * 255);
+                int cell = (y * n + x) << 8;
+
+                for (int v = 0; v < 256; v++) {
+                    if (mapping.map(offsetChannel(v, d)) != (output[cell | v] & 0xFF)) {
+                        return false;
+                    }
+                }
+            }
+        }
+
+        return true;
+    }
+
+    private static void quantizeChannel(Mapping m, int[] pixels, int from, int to, int shift) {
+        for (int i = from; i < to; i += INTS.length()) {
+            IntVector p = IntVector.fromArray(INTS, pixels, i);
+
+            IntVector c = m.map(toFloat(p.lanewise(VectorOperators.LSHR, shift).and(0xFF)));
+
+            p.and(~(0xFF << shift)).or(c.lanewise(VectorOperators.LSHL, shift)).intoArray(pixels, i);
+        }
+    }
+
+    private static void ditherChannel(Mapping m, float[] pattern, int[] pixels, int offset, int length, int shift) {
+        for (int x = 0, j = 0; x < length; x += INTS.length(), j += INTS.length()) {
+            if (j == pattern.length) {
+                j = 0;
+            }
+
+            IntVector p = IntVector.fromArray(INTS, pixels, offset + x);
+            FloatVector d = FloatVector.fromArray(FLOATS, pattern, j);
+
+            IntVector c = m.map(offsetChannel(p.lanewise(VectorOperators.LSHR, shift).and(0xFF), d));
+
+            p.and(~(0xFF << shift)).or(c.lanewise(VectorOperators.LSHL, shift)).intoArray(pixels, offset + x);
+        }
+    }
+
+    // OrderedDithering adds the offset to the normalized channel, clamps it to
+    // [0, 1] and truncates it back to 0-255, here the offset is pre-scaled by
+    // 255 instead (validation checks the two agree)
+    private static int offsetChannel(int value, float d) {
+        return (int) Math.min(255f, Math.max(0f, value + d));
+    }
+
+    private static FloatVector offsetChannel(IntVector value, FloatVector d) {
+        return floor(toFloat(value).add(d).max(0f).min(255f));
+    }
+
+    // The generic lane conversions expand into enough JIT nodes to stop the
+    // loops from being inlined, so these use the float layout instead: 2^23 + n
+    // has the integer n as its mantissa, for n in [0, 2^23)
+
+    private static FloatVector toFloat(IntVector v) {
+        return v.or(0x4B000000).reinterpretAsFloats().sub(0x1p23f);
+    }
+
+    // Rounds to the nearest integer, ties to even
+    private static IntVector round(FloatVector v) {
+        return v.add(ROUNDING).reinterpretAsInts().and(0x3FFFFF);
+    }
+
+    private static int round(float v) {
+        return Float.floatToRawIntBits(v + ROUNDING) & 0x3FFFFF;
+    }
+
+    // Rounds, then steps back down where that rounded up. Same as the (int)
+    // cast of the scalar code for non-negative values
+    private static FloatVector floor(FloatVector v) {
+        FloatVector r = v.add(ROUNDING).sub(ROUNDING);
+
+        return r.sub(1f, r.compare(VectorOperators.GT, v));
+    }
+
+    /**
+     * A channel quantization in float arithmetic, with a scalar and a vector
+     * form that perform the exact same operations: clamp, scale to a level,
+     * truncate, scale back to 0-255 and round with the bias.
+     */
+    private static class Mapping {
+        private final float low, high;
+        private final float scale, offset;
+        private final float unit, bias;
+
+        Mapping(ChannelQuantization quantization, float bias) {
+            float steps = quantization.levels() - 1;
+
+            if (quantization.range()) {
+                this.low = (float) quantization.min();
+                this.high = (float) quantization.max();
+            } else {
+                this.low = 0f;
+                this.high = 255f;
+            }
+
+            this.scale = steps / (high - low);
+            this.offset = 0.5f - low * scale;
+            this.unit = 255f / steps;
+            this.bias = bias;
+        }
+
+        int map(int value) {
+            float v = Math.min(high, Math.max(low, (float) value));
+            int q = (int) (v * scale + offset);
+
+            return round(q * unit + bias);
+        }
+
+        // Expects integer values from 0 to 255
+        IntVector map(FloatVector value) {
+            FloatVector v = value.max(low).min(high);
+            FloatVector q = floor(v.mul(scale).add(offset));
+
+            return round(q.mul(unit).add(bias));
+        }
+    }
+}
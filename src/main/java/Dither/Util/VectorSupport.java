@@ -0,0 +1,67 @@
+package Dither.Util;
+
+import Dither.Util.RasterAccess.RowOperation;
+
+public class VectorSupport {
+    private static final boolean AVAILABLE = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()
+            && !"false".equalsIgnoreCase(System.getProperty("dither.vector"));
+
+    private static volatile boolean enabled = AVAILABLE;
+
+    /**
+     * Tells whether SIMD kernels are used. They need the JVM to be started
+     * with {@code --add-modules jdk.incubator.vector} and can be turned off
+     * with {@code -Ddither.vector=false}.
+     *
+     * @return true if the vector kernels are available and enabled
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Turns the SIMD kernels on or off at runtime, for comparisons against
+     * the scalar path. Has no effect if the vector module is not available.
+     *
+     * @param enable true to use the vector kernels when possible
+     */
+    public static void setEnabled(boolean enable) {
+        enabled = enable && AVAILABLE;
+    }
+
+    /**
+     * Returns a row operation quantizing the red, green and blue channels of
+     * packed 0xAARRGGBB pixels several pixels at a time.
+     *
+     * @param quantization the channel mapping to apply
+     * @param table the scalar table of that mapping, the vector kernel is only
+     * returned if it matches it for every channel value
+     * @return the vector row operation, or null to use the scalar path
+     */
+    public static RowOperation quantizer(ChannelQuantization quantization, byte[] table) {
+        if (!enabled || quantization == null) {
+            return null;
+        }
+
+        return VectorKernels.quantizer(quantization, table);
+    }
+
+    /**
+     * Returns a row operation applying ordered dithering to packed 0xAARRGGBB
+     * pixels several pixels at a time.
+     *
+     * @param offsets the n×n matrix of offsets added to each normalized
+     * channel, spread included
+     * @param quantization the channel mapping applied after the offset
+     * @param output the scalar n×n×256 output table of OrderedDithering, the
+     * vector kernel is only returned if it matches it for every entry
+     * @return the vector row operation, or null to use the scalar path
+     */
+    public static RowOperation orderedDither(double[][] offsets, ChannelQuantization quantization, byte[] output) {
+        if (!enabled || quantization == null) {
+            return null;
+        }
+
+        return VectorKernels.orderedDither(offsets, quantization, output);
+    }
+}
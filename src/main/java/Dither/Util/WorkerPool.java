@@ -0,0 +1,28 @@
+package Dither.Util;
+
+import java.util.concurrent.ForkJoinPool;
+
+public class WorkerPool {
+    private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    
+    /**
+     * Returns the pool shared by every parallel stage of the application, so
+     * concurrent jobs compete for the same workers instead of each creating
+     * their own threads.
+     *
+     * @return the shared ForkJoinPool
+     */
+    public static ForkJoinPool get() {
+        return POOL;
+    }
+    
+    /**
+     * Returns the default number of threads for parallel work, one per
+     * available processor.
+     *
+     * @return the default thread count
+     */
+    public static int defaultThreads() {
+        return POOL.getParallelism();
+    }
+}
@@ -0,0 +1,808 @@
+package FileManager;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Reads an image from top to bottom a band of rows at a time, keeping one
+ * pixel out of every subsampling × subsampling block like
+ * PngReader.readPNG, so that only a band is ever held in memory.
+ *
+ * Non-interlaced 8 bit gray, RGB and RGBA PNGs and palette PNGs are decoded
+ * here in a single pass over the file, QOI images are decoded row by row,
+ * and PAM images are copied from a mapping of the file. Other images go through their
+ * ImageIO reader with a source region per band; those readers decode from
+ * the start of the image for every band, which is slower but still only
+ * holds a band.
+ *
+ * Bands are TYPE_BYTE_GRAY for 8 bit gray images, whose bytes are kept as
+ * they are like readPNG does, and TYPE_INT_ARGB for everything else.
+ */
+public abstract class BandReader implements Closeable {
+    /**
+     * Opens an image file for reading in bands.
+     *
+     * @param fileLocation path of the image file
+     * @param subsampling the integer factor by which to reduce width and
+     * height, 1 to read the whole image
+     * @return the reader, positioned at the first row
+     * @throws IOException if the file cannot be opened or has no reader
+     * @throws IllegalArgumentException if the image is smaller than the
+     * subsampling factor
+     */
+    public static BandReader open(String fileLocation, int subsampling) throws IOException {
+        File file = new File(fileLocation);
+
+        if (PamCodec.isPam(file.toPath())) {
+            return new PamRows(PamCodec.Mapped.open(file.toPath()), Math.max(1, subsampling));
+        }
+
+        if (QoiCodec.isQoi(file.toPath())) {
+            return QoiRows.open(file, Math.max(1, subsampling));
+        }
+
+        PngRows png = PngRows.open(file, Math.max(1, subsampling));
+
+        if (png != null) {
+            return png;
+        }
+
+        return ImageIoRows.open(file, Math.max(1, subsampling));
+    }
+
+    /**
+     * Decodes a whole PNG at once with the streaming decoder, straight into
+     * the pixel array of a TYPE_BYTE_GRAY image for 8 bit gray, TYPE_INT_ARGB
+     * if it has alpha and TYPE_INT_RGB otherwise.
+     *
+     * @param file the PNG file
+     * @param subsampling the integer factor by which to reduce width and
+     * height, 1 to read the whole image
+     * @return the image, or null if the file is not a PNG the streaming
+     * decoder handles
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if the image is smaller than the
+     * subsampling factor
+     */
+    static BufferedImage readPng(File file, int subsampling) throws IOException {
+        try (PngRows png = PngRows.open(file, subsampling)) {
+            return png != null ? png.readAll() : null;
+        }
+    }
+
+    /**
+     * @return the width of every band, after subsampling
+     */
+    public abstract int getWidth();
+
+    /**
+     * @return the total number of rows, after subsampling
+     */
+    public abstract int getHeight();
+
+    /**
+     * @return true if bands are TYPE_BYTE_GRAY, false if TYPE_INT_ARGB
+     */
+    public abstract boolean isGray();
+
+    /**
+     * @return true if pixels may be transparent
+     */
+    public abstract boolean hasAlpha();
+
+    /**
+     * Reads the next rows. The band returned is reused by the next call when
+     * it has the same height, so it must be done with by then.
+     *
+     * @param rows the number of rows wanted
+     * @return the next rows, fewer than asked at the bottom of the image, or
+     * null once every row has been read
+     * @throws IOException if reading fails
+     */
+    public abstract BufferedImage next(int rows) throws IOException;
+
+    /**
+     * A band of the given size, the previous one if it fits.
+     */
+    static BufferedImage band(BufferedImage previous, int width, int rows, boolean gray) {
+        if (previous != null && previous.getHeight() == rows) {
+            return previous;
+        }
+
+        return new BufferedImage(width, rows, gray ? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_INT_ARGB);
+    }
+
+    /**
+     * Streaming decoder for the common PNG layouts: inflates and unfilters
+     * one row at a time and converts the kept pixels into the band.
+     */
+    private static class PngRows extends BandReader {
+        private static final long SIGNATURE = 0x89504E470D0A1A0AL;
+
+        private static final int GRAY = 0, RGB = 2, PALETTE = 3, RGBA = 6;
+
+        private final DataInputStream in;
+        private final InflaterInputStream pixels;
+        private final Inflater inflater = new Inflater();
+
+        private final int colorType;
+        private final int bitDepth;
+        private final int[] palette;
+        private final int subsampling;
+        private final int width, height;
+        private final boolean alpha;
+
+        private final int bytesPerPixel;
+        private byte[] current, previous;
+
+        private BufferedImage band;
+        private int sourceRow = 0;
+        private int row = 0;
+
+        private PngRows(DataInputStream in, int idatLength, int sourceWidth, int colorType, int bitDepth,
+                        int[] palette, int subsampling, int width, int height, boolean alpha) {
+            this.in = in;
+            this.pixels = new InflaterInputStream(new IdatStream(in, idatLength), inflater, 64 * 1024);
+            this.colorType = colorType;
+            this.bitDepth = bitDepth;
+            this.palette = palette;
+            this.subsampling = subsampling;
+            this.width = width;
+            this.height = height;
+            this.alpha = alpha;
+
+            int channels = colorType == RGB ? 3 : (colorType == RGBA ? 4 : 1);
+            int rowBytes = (int) (((long) sourceWidth * channels * bitDepth + 7) / 8);
+
+            this.bytesPerPixel = Math.max(1, channels * bitDepth / 8);
+            this.current = new byte[rowBytes];
+            this.previous = new byte[rowBytes];
+        }
+
+        // Null if the file is not a PNG this decoder handles
+        static PngRows open(File file, int subsampling) throws IOException {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+            boolean handled = false;
+
+            try {
+                if (in.readLong() != SIGNATURE || in.readInt() != 13 || in.readInt() != 0x49484452) {
+                    return null;
+                }
+
+                int sourceWidth = in.readInt();
+                int sourceHeight = in.readInt();
+                int bitDepth = in.readUnsignedByte();
+                int colorType = in.readUnsignedByte();
+                int compression = in.readUnsignedByte();
+                int filter = in.readUnsignedByte();
+                int interlace = in.readUnsignedByte();
+                in.readInt();
+
+                boolean supported = compression == 0 && filter == 0 && interlace == 0
+                        && (colorType == PALETTE || bitDepth == 8)
+                        && (colorType == GRAY || colorType == RGB || colorType == PALETTE || colorType == RGBA);
+
+                if (!supported) {
+                    return null;
+                }
+
+                int width = sourceWidth / subsampling;
+                int height = sourceHeight / subsampling;
+
+                if (width == 0 || height == 0) {
+                    throw new IllegalArgumentException("Image is smaller than the scale " + subsampling);
+                }
+
+                int[] palette = null;
+                boolean alpha = colorType == RGBA;
+
+                // Chunks up to the first IDAT, which is left unread
+                while (true) {
+                    int length = in.readInt();
+                    int type = in.readInt();
+
+                    if (type == 0x49444154) {
+                        if (colorType == PALETTE && palette == null) {
+                            throw new IOException("Palette PNG without a PLTE chunk");
+                        }
+
+                        handled = true;
+
+                        return new PngRows(in, length, sourceWidth, colorType, bitDepth, palette,
+                                subsampling, width, height, alpha);
+                    }
+
+                    if (type == 0x504C5445) {
+                        palette = new int[256];
+                        Arrays.fill(palette, 0xFF000000);
+
+                        for (int i = 0; i < length / 3; i++) {
+                            palette[i] = 0xFF000000 | (in.readUnsignedByte() << 16)
+                                    | (in.readUnsignedByte() << 8) | in.readUnsignedByte();
+                        }
+
+                        in.skipNBytes(length - length / 3 * 3);
+                    } else if (type == 0x74524E53) {
+                        // A transparent color key for gray or RGB, left to ImageIO
+                        if (colorType != PALETTE || palette == null) {
+                            return null;
+                        }
+
+                        for (int i = 0; i < length; i++) {
+                            int a = in.readUnsignedByte();
+
+                            if (i < 256) {
+                                palette[i] = (a << 24) | (palette[i] & 0xFFFFFF);
+                                alpha |= a != 0xFF;
+                            }
+                        }
+                    } else {
+                        in.skipNBytes(length);
+                    }
+
+                    in.readInt();
+                }
+            } finally {
+                if (!handled) {
+                    in.close();
+                }
+            }
+        }
+
+        @Override
+        public int getWidth() {
+            return width;
+        }
+
+        @Override
+        public int getHeight() {
+            return height;
+        }
+
+        @Override
+        public boolean isGray() {
+            return colorType == GRAY;
+        }
+
+        @Override
+        public boolean hasAlpha() {
+            return alpha;
+        }
+
+        @Override
+        public BufferedImage next(int rows) throws IOException {
+            int count = Math.min(rows, height - row);
+
+            if (count <= 0) {
+                return null;
+            }
+
+            band = band(band, width, count, isGray());
+
+            for (int y = 0; y < count; y++) {
+                // Rows between the kept ones are still needed to unfilter
+                int target = (row + y) * subsampling;
+
+                while (sourceRow <= target) {
+                    readRow();
+                }
+
+                if (isGray()) {
+                    byte[] gray = ((DataBufferByte) band.getRaster().getDataBuffer()).getData();
+
+                    for (int x = 0; x < width; x++) {
+                        gray[y * width + x] = current[x * subsampling];
+                    }
+                } else {
+                    int[] argb = ((DataBufferInt) band.getRaster().getDataBuffer()).getData();
+
+                    convert(argb, y * width);
+                }
+            }
+
+            row += count;
+
+            return band;
+        }
+
+        // Every row as a single band, packed as RGB when opaque
+        BufferedImage readAll() throws IOException {
+            int type = isGray() ? BufferedImage.TYPE_BYTE_GRAY
+                    : (alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+
+            band = new BufferedImage(width, height, type);
+
+            return next(height);
+        }
+
+        private void convert(int[] argb, int offset) {
+            byte[] c = current;
+
+            for (int x = 0; x < width; x++) {
+                int sx = x * subsampling;
+
+                argb[offset + x] = switch (colorType) {
+                    case RGB -> {
+                        int p = sx * 3;
+
+                        yield 0xFF000000 | ((c[p] & 0xFF) << 16) | ((c[p + 1] & 0xFF) << 8) | (c[p + 2] & 0xFF);
+                    }
+                    case RGBA -> {
+                        int p = sx * 4;
+
+                        yield ((c[p + 3] & 0xFF) << 24) | ((c[p] & 0xFF) << 16)
+                                | ((c[p + 1] & 0xFF) << 8) | (c[p + 2] & 0xFF);
+                    }
+                    default -> {
+                        // Palette indices of 1 to 8 bits, leftmost in the most significant bits
+                        int bit = sx * bitDepth;
+                        int index = ((c[bit >> 3] & 0xFF) >> (8 - bitDepth - (bit & 7))) & ((1 << bitDepth) - 1);
+
+                        yield palette[index];
+                    }
+                };
+            }
+        }
+
+        private void readRow() throws IOException {
+            byte[] swap = previous;
+            previous = current;
+            current = swap;
+
+            int filter = pixels.read();
+
+            if (filter < 0) {
+                throw new EOFException("PNG data ends at row " + sourceRow);
+            }
+
+            readFully(current);
+            unfilter(filter, current, previous);
+
+            sourceRow++;
+        }
+
+        private void readFully(byte[] buffer) throws IOException {
+            int done = 0;
+
+            while (done < buffer.length) {
+                int n = pixels.read(buffer, done, buffer.length - done);
+
+                if (n < 0) {
+                    throw new EOFException("PNG data ends at row " + sourceRow);
+                }
+
+                done += n;
+            }
+        }
+
+        private void unfilter(int filter, byte[] row, byte[] up) throws IOException {
+            int bpp = bytesPerPixel;
+
+            switch (filter) {
+                case 0 -> { }
+                case 1 -> {
+                    for (int i = bpp; i < row.length; i++) {
+                        row[i] += row[i - bpp];
+                    }
+                }
+                case 2 -> {
+                    for (int i = 0; i < row.length; i++) {
+                        row[i] += up[i];
+                    }
+                }
+                case 3 -> {
+                    for (int i = 0; i < row.length; i++) {
+                        int left = i >= bpp ? row[i - bpp] & 0xFF : 0;
+
+                        row[i] += (byte) ((left + (up[i] & 0xFF)) >> 1);
+                    }
+                }
+                case 4 -> {
+                    for (int i = 0; i < row.length; i++) {
+                        int a = i >= bpp ? row[i - bpp] & 0xFF : 0;
+                        int b = up[i] & 0xFF;
+                        int c = i >= bpp ? up[i - bpp] & 0xFF : 0;
+
+                        row[i] += (byte) paeth(a, b, c);
+                    }
+                }
+                default -> throw new IOException("Unknown PNG filter " + filter + " at row " + sourceRow);
+            }
+        }
+
+        private static int paeth(int a, int b, int c) {
+            int p = a + b - c;
+            int pa = Math.abs(p - a);
+            int pb = Math.abs(p - b);
+            int pc = Math.abs(p - c);
+
+            if (pa <= pb && pa <= pc) {
+                return a;
+            }
+
+            return pb <= pc ? b : c;
+        }
+
+        @Override
+        public void close() throws IOException {
+            inflater.end();
+            in.close();
+        }
+    }
+
+    /**
+     * The data of consecutive IDAT chunks as one stream, ending at the first
+     * chunk of another type.
+     */
+    private static class IdatStream extends InputStream {
+        private final DataInputStream in;
+        private int remaining;
+        private boolean ended = false;
+
+        IdatStream(DataInputStream in, int remaining) {
+            this.in = in;
+            this.remaining = remaining;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            while (remaining == 0) {
+                if (ended) {
+                    return -1;
+                }
+
+                // CRC of the chunk just read, then the next chunk header
+                in.readInt();
+
+                int length = in.readInt();
+                int type = in.readInt();
+
+                if (type != 0x49444154) {
+                    ended = true;
+
+                    return -1;
+                }
+
+                remaining = length;
+            }
+
+            int n = in.read(b, off, Math.min(len, remaining));
+
+            if (n < 0) {
+                throw new EOFException("PNG file ends inside an IDAT chunk");
+            }
+
+            remaining -= n;
+
+            return n;
+        }
+    }
+
+    /**
+     * Rows copied from a PAM file mapped in memory.
+     */
+    private static class PamRows extends BandReader {
+        private final PamCodec.Mapped pam;
+        private final int subsampling;
+        private final int width, height;
+        private final byte[] source;
+
+        private BufferedImage band;
+        private int row = 0;
+
+        PamRows(PamCodec.Mapped pam, int subsampling) {
+            this.pam = pam;
+            this.subsampling = subsampling;
+            this.width = pam.width / subsampling;
+            this.height = pam.height / subsampling;
+            this.source = new byte[pam.width * pam.depth];
+
+            if (width == 0 || height == 0) {
+                pam.close();
+
+                throw new IllegalArgumentException("Image is smaller than the scale " + subsampling);
+            }
+        }
+
+        @Override
+        public int getWidth() {
+            return width;
+        }
+
+        @Override
+        public int getHeight() {
+            return height;
+        }
+
+        @Override
+        public boolean isGray() {
+            return pam.depth == 1;
+        }
+
+        @Override
+        public boolean hasAlpha() {
+            return pam.hasAlpha();
+        }
+
+        @Override
+        public BufferedImage next(int rows) {
+            int count = Math.min(rows, height - row);
+
+            if (count <= 0) {
+                return null;
+            }
+
+            band = band(band, width, count, isGray());
+
+            for (int y = 0; y < count; y++) {
+                pam.readRow((row + y) * subsampling, source);
+
+                if (isGray()) {
+                    byte[] gray = ((DataBufferByte) band.getRaster().getDataBuffer()).getData();
+
+                    for (int x = 0; x < width; x++) {
+                        gray[y * width + x] = source[x * subsampling];
+                    }
+                } else {
+                    int[] argb = ((DataBufferInt) band.getRaster().getDataBuffer()).getData();
+
+                    pam.toArgb(source, subsampling, argb, y * width, width);
+                }
+            }
+
+            row += count;
+
+            return band;
+        }
+
+        @Override
+        public void close() {
+            pam.close();
+        }
+    }
+
+    /**
+     * Rows decoded one at a time from a QOI file.
+     */
+    private static class QoiRows extends BandReader {
+        private final QoiCodec.Decoder qoi;
+        private final int subsampling;
+        private final int width, height;
+        private final int[] source;
+
+        private BufferedImage band;
+        private int row = 0;
+
+        private QoiRows(QoiCodec.Decoder qoi, int subsampling) {
+            this.qoi = qoi;
+            this.subsampling = subsampling;
+            this.width = qoi.width / subsampling;
+            this.height = qoi.height / subsampling;
+            this.source = subsampling > 1 ? new int[qoi.width] : null;
+        }
+
+        static QoiRows open(File file, int subsampling) throws IOException {
+            QoiCodec.Decoder qoi = new QoiCodec.Decoder(new FileInputStream(file));
+
+            if (qoi.width / subsampling == 0 || qoi.height / subsampling == 0) {
+                qoi.close();
+
+                throw new IllegalArgumentException("Image is smaller than the scale " + subsampling);
+            }
+
+            return new QoiRows(qoi, subsampling);
+        }
+
+        @Override
+        public int getWidth() {
+            return width;
+        }
+
+        @Override
+        public int getHeight() {
+            return height;
+        }
+
+        @Override
+        public boolean isGray() {
+            return false;
+        }
+
+        @Override
+        public boolean hasAlpha() {
+            return qoi.channels == 4;
+        }
+
+        @Override
+        public BufferedImage next(int rows) throws IOException {
+            int count = Math.min(rows, height - row);
+
+            if (count <= 0) {
+                return null;
+            }
+
+            band = band(band, width, count, false);
+
+            int[] argb = ((DataBufferInt) band.getRaster().getDataBuffer()).getData();
+
+            for (int y = 0; y < count; y++) {
+                if (subsampling == 1) {
+                    qoi.readRow(argb, y * width);
+
+                    continue;
+                }
+
+                qoi.readRow(source, 0);
+
+                for (int x = 0; x < width; x++) {
+                    argb[y * width + x] = source[x * subsampling];
+                }
+
+                for (int skip = 1; skip < subsampling; skip++) {
+                    qoi.readRow(source, 0);
+                }
+            }
+
+            row += count;
+
+            return band;
+        }
+
+        @Override
+        public void close() throws IOException {
+            qoi.close();
+        }
+    }
+
+    /**
+     * Any image ImageIO can read, one source region per band.
+     */
+    private static class ImageIoRows extends BandReader {
+        private final ImageInputStream stream;
+        private final ImageReader reader;
+        private final boolean jpeg;
+        private final int subsampling;
+        private final int width, height;
+        private final boolean gray, alpha;
+
+        private BufferedImage band;
+        private int row = 0;
+
+        private ImageIoRows(ImageInputStream stream, ImageReader reader, int subsampling) throws IOException {
+            this.stream = stream;
+            this.reader = reader;
+            this.subsampling = subsampling;
+            this.width = reader.getWidth(0) / subsampling;
+            this.height = reader.getHeight(0) / subsampling;
+
+            if (width == 0 || height == 0) {
+                throw new IllegalArgumentException("Image is smaller than the scale " + subsampling);
+            }
+
+            // JPEGs are drawn into ARGB bands, gray bytes stay as they are
+            // like readPNG keeps them. read decodes into the first type given
+            String format = reader.getFormatName();
+            BufferedImage type = reader.getImageTypes(0).next().createBufferedImage(1, 1);
+
+            this.jpeg = format.equalsIgnoreCase("jpeg") || format.equalsIgnoreCase("jpg");
+            this.gray = !jpeg && type.getType() == BufferedImage.TYPE_BYTE_GRAY;
+            this.alpha = type.getColorModel().hasAlpha();
+        }
+
+        static ImageIoRows open(File file, int subsampling) throws IOException {
+            ImageInputStream stream = ImageIO.createImageInputStream(file);
+
+            if (stream == null) {
+                throw new IOException("Cannot open " + file);
+            }
+
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+
+            if (!readers.hasNext()) {
+                stream.close();
+
+                throw new IOException("No reader for image: " + file);
+            }
+
+            ImageReader reader = readers.next();
+
+            try {
+                reader.setInput(stream, false, true);
+
+                return new ImageIoRows(stream, reader, subsampling);
+            } catch (IOException | RuntimeException e) {
+                reader.dispose();
+                stream.close();
+
+                throw e;
+            }
+        }
+
+        @Override
+        public int getWidth() {
+            return width;
+        }
+
+        @Override
+        public int getHeight() {
+            return height;
+        }
+
+        @Override
+        public boolean isGray() {
+            return gray;
+        }
+
+        @Override
+        public boolean hasAlpha() {
+            return alpha;
+        }
+
+        @Override
+        public BufferedImage next(int rows) throws IOException {
+            int count = Math.min(rows, height - row);
+
+            if (count <= 0) {
+                return null;
+            }
+
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceRegion(new Rectangle(0, row * subsampling, width * subsampling, count * subsampling));
+            param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+
+            BufferedImage decoded = reader.read(0, param);
+
+            row += count;
+
+            if (gray && decoded.getType() == BufferedImage.TYPE_BYTE_GRAY) {
+                return decoded;
+            }
+
+            band = band(band, width, count, false);
+
+            if (jpeg) {
+                Graphics2D g = band.createGraphics();
+                g.drawImage(decoded, 0, 0, null);
+                g.dispose();
+            } else {
+                int[] argb = ((DataBufferInt) band.getRaster().getDataBuffer()).getData();
+
+                decoded.getRGB(0, 0, width, count, argb, 0, width);
+            }
+
+            return band;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.dispose();
+            stream.close();
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package FileManager;
+
+/**
+ * The formats images can be saved in.
+ */
+public enum ImageFormat {
+    /** Deflate compressed PNG, the smallest files. */
+    PNG("png"),
+    /** Uncompressed PAM, the fastest to write and read back, for intermediates. */
+    PAM(PamCodec.EXTENSION),
+    /** Lossless QOI, several times faster than PNG to write and read back, but larger. */
+    QOI(QoiCodec.EXTENSION);
+
+    private final String extension;
+
+    ImageFormat(String extension) {
+        this.extension = extension;
+    }
+
+    /**
+     * @return the file extension, without the dot
+     */
+    public String extension() {
+        return extension;
+    }
+}
@@ -0,0 +1,355 @@
+package FileManager;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.RenderedImage;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads and writes uncompressed 8 bit Netpbm images: PAM (P7) with 1 to 4
+ * channels, and for reading also binary PGM (P5) and PPM (P6). Files are
+ * mapped in memory with FileChannel.map, pixels are copied straight from and
+ * to the mapping with nothing to inflate or deflate, which makes them much
+ * faster than PNG for intermediate images at the cost of their size.
+ *
+ * Gray images are read as TYPE_BYTE_GRAY with their bytes as they are, like
+ * gray PNGs, RGB as TYPE_INT_RGB and images with alpha as TYPE_INT_ARGB.
+ */
+public class PamCodec {
+    /**
+     * File extension of written images.
+     */
+    public static final String EXTENSION = "pam";
+
+    /**
+     * Tells whether a file starts like a binary Netpbm image this codec
+     * reads.
+     *
+     * @param file the file to check
+     * @return true for P5, P6 and P7 files
+     * @throws IOException if the file cannot be read
+     */
+    public static boolean isPam(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            int p = in.read();
+            int n = in.read();
+
+            return p == 'P' && (n == '5' || n == '6' || n == '7');
+        }
+    }
+
+    /**
+     * Reads the size of an image from its header, without its pixels.
+     *
+     * @param file the image file
+     * @return the width and height in pixels
+     * @throws IOException if the file cannot be read or is not a supported
+     * Netpbm image
+     */
+    public static Dimension size(Path file) throws IOException {
+        try (Mapped pam = Mapped.open(file)) {
+            return new Dimension(pam.width, pam.height);
+        }
+    }
+
+    /**
+     * Reads an image keeping only one pixel out of every subsampling ×
+     * subsampling block, the top-left one, like PngReader.readPNG.
+     *
+     * @param file the image file
+     * @param subsampling the integer factor by which to reduce width and
+     * height, 1 to read the whole image
+     * @return the image
+     * @throws IOException if the file cannot be read or is not a supported
+     * Netpbm image
+     * @throws IllegalArgumentException if the image is smaller than the
+     * subsampling factor
+     */
+    public BufferedImage read(Path file, int subsampling) throws IOException {
+        try (Mapped pam = Mapped.open(file)) {
+            int width = pam.width / subsampling;
+            int height = pam.height / subsampling;
+
+            if (width == 0 || height == 0) {
+                throw new IllegalArgumentException("Image is smaller than the scale " + subsampling);
+            }
+
+            BufferedImage image = new BufferedImage(width, height, pam.imageType());
+            byte[] row = new byte[pam.width * pam.depth];
+
+            if (pam.depth == 1) {
+                byte[] gray = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+
+                for (int y = 0; y < height; y++) {
+                    pam.readRow(y * subsampling, row);
+
+                    for (int x = 0; x < width; x++) {
+                        gray[y * width + x] = row[x * subsampling];
+                    }
+                }
+
+                return image;
+            }
+
+            int[] argb = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+
+            for (int y = 0; y < height; y++) {
+                pam.readRow(y * subsampling, row);
+                pam.toArgb(row, subsampling, argb, y * width, width);
+            }
+
+            return image;
+        }
+    }
+
+    /**
+     * Writes the image as a PAM file, replacing it if it exists. Single band
+     * gray images are written with one channel, their bytes as they are,
+     * other images as RGB or RGB_ALPHA depending on their alpha. Images other
+     * than BufferedImage are read a few rows at a time.
+     *
+     * @param image the image to write
+     * @param file the file to write
+     * @throws IOException if writing fails
+     */
+    public void write(RenderedImage image, Path file) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        boolean gray = PngEncoder.isGray(image);
+        boolean alpha = !gray && image.getColorModel().hasAlpha();
+        int depth = gray ? 1 : (alpha ? 4 : 3);
+
+        byte[] header = ("P7\nWIDTH " + width + "\nHEIGHT " + height + "\nDEPTH " + depth + "\nMAXVAL 255\nTUPLTYPE "
+                + (gray ? "GRAYSCALE" : (alpha ? "RGB_ALPHA" : "RGB")) + "\nENDHDR\n").getBytes(StandardCharsets.US_ASCII);
+        long rowBytes = (long) width * depth;
+        long size = header.length + rowBytes * height;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                Arena arena = Arena.ofConfined()) {
+            MemorySegment out = channel.map(FileChannel.MapMode.READ_WRITE, 0, size, arena);
+            MemorySegment.copy(header, 0, out, ValueLayout.JAVA_BYTE, 0, header.length);
+
+            PngEncoder.Rows rows = new PngEncoder.Rows(image);
+            byte[] row = new byte[(int) rowBytes];
+            int[] argb = new int[width];
+            long offset = header.length;
+
+            for (int y = 0; y < height; y++) {
+                if (gray) {
+                    rows.samples(y, row);
+                } else {
+                    rows.argb(y, argb);
+                    fromArgb(argb, row, alpha);
+                }
+
+                MemorySegment.copy(row, 0, out, ValueLayout.JAVA_BYTE, offset, row.length);
+                offset += rowBytes;
+            }
+        }
+    }
+
+    private static void fromArgb(int[] argb, byte[] row, boolean alpha) {
+        int p = 0;
+
+        for (int c : argb) {
+            row[p++] = (byte) (c >> 16);
+            row[p++] = (byte) (c >> 8);
+            row[p++] = (byte) c;
+
+            if (alpha) {
+                row[p++] = (byte) (c >>> 24);
+            }
+        }
+    }
+
+    /**
+     * A Netpbm file mapped in memory, its header parsed.
+     */
+    static class Mapped implements Closeable {
+        final int width, height, depth;
+
+        private final Arena arena;
+        private final MemorySegment pixels;
+
+        private Mapped(Arena arena, MemorySegment pixels, int width, int height, int depth) {
+            this.arena = arena;
+            this.pixels = pixels;
+            this.width = width;
+            this.height = height;
+            this.depth = depth;
+        }
+
+        static Mapped open(Path file) throws IOException {
+            // Shared, band readers may be handed between threads
+            Arena arena = Arena.ofShared();
+
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                MemorySegment data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena);
+                Header header = new Header(data);
+
+                int width = 0, height = 0, depth = 0, maxval = 0;
+                String magic = header.token();
+
+                switch (magic) {
+                    case "P5", "P6" -> {
+                        width = header.number();
+                        height = header.number();
+                        maxval = header.number();
+                        depth = magic.equals("P5") ? 1 : 3;
+                    }
+                    case "P7" -> {
+                        for (String key = header.token(); !key.equals("ENDHDR"); key = header.token()) {
+                            switch (key) {
+                                case "WIDTH" -> width = header.number();
+                                case "HEIGHT" -> height = header.number();
+                                case "DEPTH" -> depth = header.number();
+                                case "MAXVAL" -> maxval = header.number();
+                                case "TUPLTYPE" -> header.line();
+                                default -> throw new IOException("Unknown PAM header field: " + key);
+                            }
+                        }
+                    }
+                    default -> throw new IOException("Not a binary PGM, PPM or PAM file: " + file);
+                }
+
+                if (width <= 0 || height <= 0 || depth < 1 || depth > 4) {
+                    throw new IOException("Unsupported PAM size " + width + "x" + height + "x" + depth);
+                }
+
+                if (maxval != 255) {
+                    throw new IOException("Only 8 bit samples are supported, not MAXVAL " + maxval);
+                }
+
+                // A single whitespace byte ends the header
+                long start = header.position() + 1;
+                long size = (long) width * height * depth;
+
+                if (start + size > data.byteSize()) {
+                    throw new IOException("PAM file is truncated: " + file);
+                }
+
+                return new Mapped(arena, data.asSlice(start, size), width, height, depth);
+            } catch (IOException | RuntimeException e) {
+                arena.close();
+
+                throw e;
+            }
+        }
+
+        int imageType() {
+            return switch (depth) {
+                case 1 -> BufferedImage.TYPE_BYTE_GRAY;
+                case 3 -> BufferedImage.TYPE_INT_RGB;
+                default -> BufferedImage.TYPE_INT_ARGB;
+            };
+        }
+
+        boolean hasAlpha() {
+            return depth == 2 || depth == 4;
+        }
+
+        void readRow(int y, byte[] row) {
+            MemorySegment.copy(pixels, ValueLayout.JAVA_BYTE, (long) y * width * depth, row, 0, width * depth);
+        }
+
+        // Every subsampling-th pixel of a row as 0xAARRGGBB
+        void toArgb(byte[] row, int subsampling, int[] argb, int offset, int count) {
+            for (int x = 0; x < count; x++) {
+                int p = x * subsampling * depth;
+
+                argb[offset + x] = switch (depth) {
+                    case 2 -> ((row[p + 1] & 0xFF) << 24) | (row[p] & 0xFF) * 0x010101;
+                    case 3 -> 0xFF000000 | ((row[p] & 0xFF) << 16) | ((row[p + 1] & 0xFF) << 8) | (row[p + 2] & 0xFF);
+                    default -> ((row[p + 3] & 0xFF) << 24) | ((row[p] & 0xFF) << 16)
+                            | ((row[p + 1] & 0xFF) << 8) | (row[p + 2] & 0xFF);
+                };
+            }
+        }
+
+        @Override
+        public void close() {
+            arena.close();
+        }
+    }
+
+    // Whitespace separated header tokens, with # comments
+    private static class Header {
+        private final MemorySegment data;
+        private long position = 0;
+
+        Header(MemorySegment data) {
+            this.data = data;
+        }
+
+        String token() throws IOException {
+            skipSpace();
+
+            StringBuilder token = new StringBuilder();
+
+            while (position < data.byteSize() && !isSpace(peek())) {
+                token.append((char) data.get(ValueLayout.JAVA_BYTE, position++));
+            }
+
+            if (token.isEmpty()) {
+                throw new IOException("PAM header ends early");
+            }
+
+            return token.toString();
+        }
+
+        int number() throws IOException {
+            String token = token();
+
+            try {
+                return Integer.parseInt(token);
+            } catch (NumberFormatException e) {
+                throw new IOException("Expected a number in the PAM header, got " + token);
+            }
+        }
+
+        void line() {
+            while (position < data.byteSize() && peek() != '\n') {
+                position++;
+            }
+        }
+
+        long position() {
+            return position;
+        }
+
+        private void skipSpace() {
+            while (position < data.byteSize()) {
+                int c = peek();
+
+                if (c == '#') {
+                    line();
+                } else if (isSpace(c)) {
+                    position++;
+                } else {
+                    return;
+                }
+            }
+        }
+
+        private int peek() {
+            return data.get(ValueLayout.JAVA_BYTE, position);
+        }
+
+        private static boolean isSpace(int c) {
+            return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+        }
+    }
+}
@@ -0,0 +1,715 @@
+package FileManager;
+
+import Dither.Util.PaletteConverter;
+import Dither.Util.WorkerPool;
+
+import java.awt.Rectangle;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * PNG writer that filters and deflates the image in independent segments on
+ * the shared WorkerPool, the way pigz does for gzip.
+ *
+ * Each segment of rows is compressed as raw deflate data primed with the
+ * last 32 KB of the data before it, so matches still reach across segment
+ * boundaries, and ends on a byte boundary (SYNC_FLUSH) so the segments can be
+ * concatenated into a single zlib stream. The checksums of the segments are
+ * combined at the end. The file is identical for any number of threads.
+ */
+public class PngEncoder {
+    /**
+     * Deflate level used by default, the same as the ImageIO PNG writer's.
+     */
+    public static final int DEFAULT_LEVEL = 4;
+
+    private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+
+    // Deflate window, the most a segment can refer back into the previous one
+    private static final int WINDOW = 32 * 1024;
+
+    // Filtered bytes per segment, large enough that the repeated dictionary
+    // rows and the flush at each boundary cost little
+    private static final int SEGMENT_BYTES = 256 * 1024;
+
+    // Rows fetched at once from images that are not BufferedImages
+    private static final int BAND_ROWS = 16;
+
+    private static final int FILTER_NONE = 0;
+    private static final int FILTER_SUB = 1;
+    private static final int FILTER_UP = 2;
+    private static final int FILTER_AVERAGE = 3;
+    private static final int FILTER_PAETH = 4;
+
+    /**
+     * Pixel layouts the encoder writes, one per PNG color type.
+     */
+    public enum Format {
+        /** 8 bit gray, one byte per pixel. */
+        GRAY(0, 1),
+        /** 8 bit red, green and blue. */
+        RGB(2, 3),
+        /** 8 bit red, green, blue and alpha. */
+        RGBA(6, 4),
+        /** Palette indices of 1, 2, 4 or 8 bits. */
+        PALETTE(3, 1);
+
+        private final int colorType;
+        private final int channels;
+
+        Format(int colorType, int channels) {
+            this.colorType = colorType;
+            this.channels = channels;
+        }
+    }
+
+    private final int level;
+    private final int threads;
+
+    /**
+     * Creates an encoder with the default level, using every worker.
+     */
+    public PngEncoder() {
+        this(DEFAULT_LEVEL);
+    }
+
+    /**
+     * Creates an encoder with the given level, using every worker.
+     *
+     * @param level deflate level from 0 (no compression, fastest) to 9
+     * (smallest files, slowest)
+     * @throws IllegalArgumentException if level is outside [0, 9]
+     */
+    public PngEncoder(int level) {
+        this(level, WorkerPool.defaultThreads());
+    }
+
+    /**
+     * Creates an encoder with the given level and number of threads.
+     *
+     * Level 0 also skips filtering, there is nothing for it to help; the
+     * other levels pick the filter of each row with the usual smallest sum of
+     * absolute differences.
+     *
+     * @param level deflate level from 0 (no compression, fastest) to 9
+     * (smallest files, slowest)
+     * @param threads maximum number of segments compressed at the same time,
+     * 1 to compress everything on the calling thread
+     * @throws IllegalArgumentException if level is outside [0, 9]
+     */
+    public PngEncoder(int level, int threads) {
+        if (level < 0 || level > 9) {
+            throw new IllegalArgumentException("Compression level must be between 0 and 9");
+        }
+
+        this.level = level;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Writes the image as a PNG. Palette images (IndexColorModel) are written
+     * as palette PNGs of 1 to 8 bits, single band gray images as 8 bit gray,
+     * anything else as RGB or RGBA depending on its alpha. Images other than
+     * BufferedImage are read a few rows at a time.
+     *
+     * @param image the image to write
+     * @param out the stream to write to, left open
+     * @throws IOException if writing fails
+     */
+    public void write(RenderedImage image, OutputStream out) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        ColorModel cm = image.getColorModel();
+
+        Stream stream;
+
+        if (cm instanceof IndexColorModel icm) {
+            int[] palette = new int[icm.getMapSize()];
+            icm.getRGBs(palette);
+
+            stream = open(out, width, height, Format.PALETTE, palette);
+        } else if (isGray(image)) {
+            stream = open(out, width, height, Format.GRAY, null);
+        } else {
+            stream = open(out, width, height, cm.hasAlpha() ? Format.RGBA : Format.RGB, null);
+        }
+
+        Rows rows = new Rows(image);
+        int[] argb = new int[width];
+        byte[] bytes = new byte[width];
+
+        for (int y = 0; y < height; y++) {
+            if (stream.format == Format.RGB || stream.format == Format.RGBA) {
+                rows.argb(y, argb);
+                stream.writeRow(argb, 0);
+            } else {
+                // Raw samples, getRGB would convert gray
+                rows.samples(y, bytes);
+                stream.writeRow(bytes, 0);
+            }
+        }
+
+        stream.finish();
+    }
+
+    /**
+     * Starts a PNG to be written row by row, from top to bottom, for images
+     * that are produced in bands and never held whole in memory.
+     *
+     * @param out the stream to write to, left open
+     * @param width the image width
+     * @param height the image height
+     * @param format the pixel layout of the rows
+     * @param palette the 0xAARRGGBB colors for Format.PALETTE, 1 to 256 of
+     * them; ignored otherwise
+     * @return the stream taking the rows
+     * @throws IOException if writing the header fails
+     * @throws IllegalArgumentException if the size or palette is invalid
+     */
+    public Stream open(OutputStream out, int width, int height, Format format, int[] palette) throws IOException {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Image must not be empty: " + width + "x" + height);
+        }
+
+        if (format == Format.PALETTE && (palette == null || palette.length == 0
+                || palette.length > PaletteConverter.MAX_COLORS)) {
+            throw new IllegalArgumentException("A palette image needs 1 to 256 colors");
+        }
+
+        return new Stream(out, width, height, format, palette);
+    }
+
+    static boolean isGray(RenderedImage image) {
+        ColorModel cm = image.getColorModel();
+
+        return cm.getNumComponents() == 1
+                && cm.getColorSpace().getType() == ColorSpace.TYPE_GRAY
+                && cm.getComponentSize(0) == 8;
+    }
+
+    /**
+     * The rows of an image read from top to bottom, as 0xAARRGGBB or as raw
+     * samples. Images other than BufferedImage are fetched BAND_ROWS rows at
+     * a time.
+     */
+    static class Rows {
+        private final RenderedImage image;
+        private final int width;
+        private final int[] samples;
+
+        // The rows at hand, [top, top + band.getHeight()) of the image
+        private BufferedImage band;
+        private int top;
+
+        Rows(RenderedImage image) {
+            this.image = image;
+            this.width = image.getWidth();
+            this.samples = new int[width];
+
+            if (image instanceof BufferedImage buffered) {
+                band = buffered;
+            }
+        }
+
+        /**
+         * @param y the row, counted from the top of the image
+         * @param row receives the width pixels as 0xAARRGGBB
+         */
+        void argb(int y, int[] row) {
+            band(y).getRGB(0, y - top, width, 1, row, 0, width);
+        }
+
+        /**
+         * @param y the row, counted from the top of the image
+         * @param row receives the width samples of the first band, gray
+         * levels or palette indices, unconverted
+         */
+        void samples(int y, byte[] row) {
+            band(y).getRaster().getSamples(0, y - top, width, 1, 0, samples);
+
+            for (int x = 0; x < width; x++) {
+                row[x] = (byte) samples[x];
+            }
+        }
+
+        private BufferedImage band(int y) {
+            if (band != null && y >= top && y < top + band.getHeight()) {
+                return band;
+            }
+
+            int rows = Math.min(BAND_ROWS, image.getHeight() - y);
+            Raster raster = image.getData(new Rectangle(image.getMinX(), image.getMinY() + y, width, rows));
+            WritableRaster pixels;
+
+            // getData usually returns a fresh writable raster, used as it is
+            if (raster instanceof WritableRaster writable) {
+                pixels = writable.createWritableTranslatedChild(0, 0);
+            } else {
+                pixels = raster.createCompatibleWritableRaster(width, rows);
+                pixels.setRect(-raster.getMinX(), -raster.getMinY(), raster);
+            }
+
+            band = new BufferedImage(image.getColorModel(), pixels, image.getColorModel().isAlphaPremultiplied(), null);
+            top = y;
+
+            return band;
+        }
+    }
+
+    /**
+     * A PNG being written. Rows are collected into segments, and every full
+     * segment is filtered and compressed in the background while the next
+     * one is filled; finished segments are written out in order.
+     */
+    public class Stream {
+        private final DataOutputStream out;
+        private final int width, height;
+        private final Format format;
+        private final int bits;
+        private final int rowBytes;
+        private final int segmentRows;
+
+        private final Deque<ForkJoinTask<Compressed>> pending = new ArrayDeque<>();
+
+        private byte[] raw;
+        private byte[] previous;
+        private int previousRows = 0;
+        private int rows = 0;
+        private int written = 0;
+        private boolean first = true;
+        private long adler = 1;
+
+        private Stream(OutputStream out, int width, int height, Format format, int[] palette) throws IOException {
+            this.out = new DataOutputStream(out);
+            this.width = width;
+            this.height = height;
+            this.format = format;
+            this.bits = format == Format.PALETTE ? PaletteConverter.bitsFor(palette.length) : 8;
+            this.rowBytes = (int) (((long) width * format.channels * bits + 7) / 8);
+
+            int dictionaryRows = WINDOW / (rowBytes + 1) + 1;
+            this.segmentRows = Math.max(2 * dictionaryRows + 2, SEGMENT_BYTES / (rowBytes + 1));
+            this.raw = new byte[Math.min(segmentRows, height) * rowBytes];
+
+            this.out.write(SIGNATURE);
+            writeHeader();
+
+            if (format == Format.PALETTE) {
+                writePalette(palette);
+            }
+        }
+
+        /**
+         * @return the pixel layout of the rows
+         */
+        public Format format() {
+            return format;
+        }
+
+        /**
+         * Adds the next row of packed 0xAARRGGBB pixels, for Format.RGB and
+         * Format.RGBA.
+         *
+         * @param argb the array holding the row
+         * @param offset index of the first pixel of the row
+         * @throws IOException if writing finished segments fails
+         */
+        public void writeRow(int[] argb, int offset) throws IOException {
+            if (format != Format.RGB && format != Format.RGBA) {
+                throw new IllegalStateException("ARGB rows need the RGB or RGBA format, not " + format);
+            }
+
+            int p = rows * rowBytes;
+
+            for (int x = offset; x < offset + width; x++) {
+                int c = argb[x];
+
+                raw[p++] = (byte) (c >> 16);
+                raw[p++] = (byte) (c >> 8);
+                raw[p++] = (byte) c;
+
+                if (format == Format.RGBA) {
+                    raw[p++] = (byte) (c >>> 24);
+                }
+            }
+
+            nextRow();
+        }
+
+        /**
+         * Adds the next row of gray values (Format.GRAY) or palette indices
+         * (Format.PALETTE), one byte per pixel.
+         *
+         * @param samples the array holding the row
+         * @param offset index of the first pixel of the row
+         * @throws IOException if writing finished segments fails
+         */
+        public void writeRow(byte[] samples, int offset) throws IOException {
+            if (format != Format.GRAY && format != Format.PALETTE) {
+                throw new IllegalStateException("Byte rows need the GRAY or PALETTE format, not " + format);
+            }
+
+            int p = rows * rowBytes;
+
+            if (bits == 8) {
+                System.arraycopy(samples, offset, raw, p, width);
+            } else {
+                // Several indices per byte, leftmost in the most significant bits
+                int perByte = 8 / bits;
+
+                for (int x = 0; x < width; x += perByte) {
+                    int packed = 0;
+
+                    for (int i = 0; i < perByte && x + i < width; i++) {
+                        packed |= (samples[offset + x + i] & ((1 << bits) - 1)) << (8 - bits * (i + 1));
+                    }
+
+                    raw[p++] = (byte) packed;
+                }
+            }
+
+            nextRow();
+        }
+
+        /**
+         * Writes the last segments and the end of the file, after every row
+         * has been added.
+         *
+         * @throws IOException if writing fails
+         * @throws IllegalStateException if rows are missing
+         */
+        public void finish() throws IOException {
+            if (written != height) {
+                throw new IllegalStateException("Only " + written + " of " + height + " rows were written");
+            }
+
+            while (!pending.isEmpty()) {
+                writeSegment(pending.removeFirst().join());
+            }
+
+            writeChunk("IEND", new byte[0]);
+            out.flush();
+        }
+
+        private void nextRow() throws IOException {
+            rows++;
+            written++;
+
+            if (written > height) {
+                throw new IllegalStateException("More rows than the image height " + height);
+            }
+
+            if (rows < segmentRows && written < height) {
+                return;
+            }
+
+            Segment segment = new Segment(raw, rows, previous, previousRows, written == height);
+
+            previous = raw;
+            previousRows = rows;
+            raw = new byte[Math.min(segmentRows, height - written) * rowBytes];
+            rows = 0;
+
+            if (threads == 1) {
+                writeSegment(compress(segment));
+
+                return;
+            }
+
+            pending.addLast(WorkerPool.get().submit(() -> compress(segment)));
+
+            // Keep the finished segments flowing out, and the memory bounded
+            while (!pending.isEmpty() && (pending.peekFirst().isDone() || pending.size() > 2 * threads)) {
+                writeSegment(pending.removeFirst().join());
+            }
+        }
+
+        private Compressed compress(Segment segment) {
+            byte[] filtered = filterRows(segment.raw, 0, segment.rows, segment.previous, segment.previousRows - 1);
+
+            Deflater deflater = new Deflater(level, true);
+
+            try {
+                if (segment.previous != null) {
+                    deflater.setDictionary(dictionary(segment));
+                }
+
+                deflater.setInput(filtered);
+
+                ByteArrayOutputStream data = new ByteArrayOutputStream(filtered.length / 4 + 64);
+                byte[] buffer = new byte[64 * 1024];
+
+                if (segment.last) {
+                    deflater.finish();
+
+                    while (!deflater.finished()) {
+                        data.write(buffer, 0, deflater.deflate(buffer));
+                    }
+                } else {
+                    // Flushing to a byte boundary without ending the stream
+                    // lets the next segment simply follow
+                    int n;
+
+                    do {
+                        n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                        data.write(buffer, 0, n);
+                    } while (n == buffer.length);
+                }
+
+                Adler32 checksum = new Adler32();
+                checksum.update(filtered);
+
+                return new Compressed(data.toByteArray(), checksum.getValue(), filtered.length, segment.last);
+            } finally {
+                deflater.end();
+            }
+        }
+
+        // The filtered form of the last rows of the previous segment, up to
+        // the deflate window. Filtering only looks one row up, so those rows
+        // filter the same here as they did in their own segment
+        private byte[] dictionary(Segment segment) {
+            int count = Math.min(segment.previousRows - 1, WINDOW / (rowBytes + 1) + 1);
+            int from = segment.previousRows - count;
+
+            byte[] filtered = filterRows(segment.previous, from, count, segment.previous, from - 1);
+            int length = Math.min(WINDOW, filtered.length);
+
+            byte[] dictionary = new byte[length];
+            System.arraycopy(filtered, filtered.length - length, dictionary, 0, length);
+
+            return dictionary;
+        }
+
+        // Filters 'count' rows of raw starting at row 'from'; the row above
+        // the first one is row 'priorRow' of prior, or zeros if prior is null
+        private byte[] filterRows(byte[] raw, int from, int count, byte[] prior, int priorRow) {
+            byte[] filtered = new byte[count * (rowBytes + 1)];
+            byte[][] candidates = new byte[5][rowBytes];
+            byte[] zeros = new byte[rowBytes];
+
+            int bpp = Math.max(1, format.channels * bits / 8);
+            boolean adaptive = level > 0 && format != Format.PALETTE;
+
+            for (int r = 0; r < count; r++) {
+                int cur = (from + r) * rowBytes;
+
+                byte[] up;
+                int upOffset;
+
+                if (r > 0) {
+                    up = raw;
+                    upOffset = cur - rowBytes;
+                } else if (prior != null) {
+                    up = prior;
+                    upOffset = priorRow * rowBytes;
+                } else {
+                    up = zeros;
+                    upOffset = 0;
+                }
+
+                int out = r * (rowBytes + 1);
+
+                if (!adaptive) {
+                    filtered[out] = FILTER_NONE;
+                    System.arraycopy(raw, cur, filtered, out + 1, rowBytes);
+
+                    continue;
+                }
+
+                int best = chooseFilter(raw, cur, up, upOffset, bpp, candidates);
+
+                filtered[out] = (byte) best;
+                System.arraycopy(candidates[best], 0, filtered, out + 1, rowBytes);
+            }
+
+            return filtered;
+        }
+
+        // Computes every filter of the row and returns the one whose bytes,
+        // read as signed, have the smallest sum of absolute values
+        private int chooseFilter(byte[] raw, int cur, byte[] up, int upOffset, int bpp, byte[][] candidates) {
+            long[] sums = new long[5];
+
+            for (int i = 0; i < rowBytes; i++) {
+                int x = raw[cur + i] & 0xFF;
+                int a = i >= bpp ? raw[cur + i - bpp] & 0xFF : 0;
+                int b = up[upOffset + i] & 0xFF;
+                int c = i >= bpp ? up[upOffset + i - bpp] & 0xFF : 0;
+
+                int p = a + b - c;
+                int pa = Math.abs(p - a), pb = Math.abs(p - b), pc = Math.abs(p - c);
+                int paeth = pa <= pb && pa <= pc ? a : (pb <= pc ? b : c);
+
+                candidates[FILTER_NONE][i] = (byte) x;
+                candidates[FILTER_SUB][i] = (byte) (x - a);
+                candidates[FILTER_UP][i] = (byte) (x - b);
+                candidates[FILTER_AVERAGE][i] = (byte) (x - ((a + b) >> 1));
+                candidates[FILTER_PAETH][i] = (byte) (x - paeth);
+
+                for (int f = 0; f < 5; f++) {
+                    sums[f] += Math.abs(candidates[f][i]);
+                }
+            }
+
+            int best = FILTER_NONE;
+
+            for (int f = 1; f < 5; f++) {
+                if (sums[f] < sums[best]) {
+                    best = f;
+                }
+            }
+
+            return best;
+        }
+
+        private void writeSegment(Compressed segment) throws IOException {
+            ByteArrayOutputStream data = new ByteArrayOutputStream(segment.data.length + 6);
+
+            if (first) {
+                writeZlibHeader(data);
+                first = false;
+            }
+
+            data.write(segment.data);
+            adler = combineAdler32(adler, segment.adler, segment.length);
+
+            if (segment.last) {
+                data.write((int) (adler >>> 24));
+                data.write((int) (adler >>> 16));
+                data.write((int) (adler >>> 8));
+                data.write((int) adler);
+            }
+
+            writeChunk("IDAT", data.toByteArray());
+        }
+
+        private void writeZlibHeader(ByteArrayOutputStream data) {
+            // 32K window deflate, then the level hint and the check bits
+            int cmf = 0x78;
+            int hint = level < 2 ? 0 : (level < 6 ? 1 : (level == 6 ? 2 : 3));
+            int flg = hint << 6;
+
+            flg += 31 - ((cmf << 8) + flg) % 31;
+
+            data.write(cmf);
+            data.write(flg);
+        }
+
+        private void writeHeader() throws IOException {
+            ByteArrayOutputStream data = new ByteArrayOutputStream(13);
+            DataOutputStream header = new DataOutputStream(data);
+
+            header.writeInt(width);
+            header.writeInt(height);
+            header.writeByte(bits);
+            header.writeByte(format.colorType);
+            header.writeByte(0); // deflate
+            header.writeByte(0); // adaptive filtering
+            header.writeByte(0); // not interlaced
+
+            writeChunk("IHDR", data.toByteArray());
+        }
+
+        private void writePalette(int[] palette) throws IOException {
+            byte[] plte = new byte[palette.length * 3];
+            int opaque = palette.length;
+
+            for (int i = 0; i < palette.length; i++) {
+                plte[i * 3] = (byte) (palette[i] >> 16);
+                plte[i * 3 + 1] = (byte) (palette[i] >> 8);
+                plte[i * 3 + 2] = (byte) palette[i];
+            }
+
+            writeChunk("PLTE", plte);
+
+            // Alpha of each entry up to the last one that is not opaque
+            while (opaque > 0 && (palette[opaque - 1] >>> 24) == 0xFF) {
+                opaque--;
+            }
+
+            if (opaque > 0) {
+                byte[] trns = new byte[opaque];
+
+                for (int i = 0; i < opaque; i++) {
+                    trns[i] = (byte) (palette[i] >>> 24);
+                }
+
+                writeChunk("tRNS", trns);
+            }
+        }
+
+        private void writeChunk(String type, byte[] data) throws IOException {
+            byte[] name = type.getBytes(StandardCharsets.US_ASCII);
+
+            CRC32 crc = new CRC32();
+            crc.update(name);
+            crc.update(data);
+
+            out.writeInt(data.length);
+            out.write(name);
+            out.write(data);
+            out.writeInt((int) crc.getValue());
+        }
+    }
+
+    /**
+     * Combines the Adler-32 of two consecutive pieces of data into the
+     * Adler-32 of the whole, like zlib's adler32_combine.
+     *
+     * @param adler1 checksum of the first piece
+     * @param adler2 checksum of the second piece
+     * @param length2 length of the second piece
+     * @return checksum of the two pieces together
+     */
+    static long combineAdler32(long adler1, long adler2, long length2) {
+        final long base = 65521;
+
+        long rem = length2 % base;
+        long sum1 = adler1 & 0xFFFF;
+        long sum2 = (rem * sum1) % base;
+
+        sum1 += (adler2 & 0xFFFF) + base - 1;
+        sum2 += ((adler1 >> 16) & 0xFFFF) + ((adler2 >> 16) & 0xFFFF) + base - rem;
+
+        if (sum1 >= base) {
+            sum1 -= base;
+        }
+
+        if (sum1 >= base) {
+            sum1 -= base;
+        }
+
+        if (sum2 >= base << 1) {
+            sum2 -= base << 1;
+        }
+
+        if (sum2 >= base) {
+            sum2 -= base;
+        }
+
+        return sum1 | (sum2 << 16);
+    }
+
+    // Raw rows of a segment, with the rows of the segment before it for the
+    // first Up reference and the dictionary
+    private record Segment(byte[] raw, int rows, byte[] previous, int previousRows, boolean last) { }
+
+    private record Compressed(byte[] data, long adler, long length, boolean last) { }
+}
@@ -1,35 +1,254 @@
 package FileManager;
 
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
+import java.util.Iterator;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 
 public class PngReader {
     public BufferedImage readPNG(String fileLocation, boolean grayscale) {
+        return readPNG(fileLocation, grayscale, 1);
+    }
+    
+    /**
+     * Reads an image keeping only one pixel out of every subsampling ×
+     * subsampling block, the top-left one, the same pixels as
+     * Scaler.scaleDown. The decoder skips the other pixels, so the full
+     * resolution image is never held in memory.
+     *
+     * The image is always TYPE_INT_ARGB, TYPE_INT_RGB when it has no alpha,
+     * or TYPE_BYTE_GRAY for 8 bit gray images, so that every later stage
+     * works on its pixel array instead of converting through its color
+     * model.
+     *
+     * @param fileLocation path of the image file
+     * @param grayscale whether to convert the image to grayscale
+     * @param subsampling the integer factor by which to reduce width and
+     * height, 1 to read the whole image
+     * @return the image, or null if it could not be read
+     * @throws IllegalArgumentException if the image is smaller than the
+     * subsampling factor
+     */
+    public BufferedImage readPNG(String fileLocation, boolean grayscale, int subsampling) {
         try {
-            File file = new File(fileLocation);
-            BufferedImage image = ImageIO.read(file);
+            BufferedImage image = decode(new File(fileLocation), subsampling);
             
-            //Check file format
-            String formatName = fileLocation.substring(fileLocation.lastIndexOf(".") + 1);
+            if (image == null) {
+                System.err.println("No reader for image: " + fileLocation);
+                
+                return null;
+            }
             
-            if (formatName.equalsIgnoreCase("jpg") || formatName.equalsIgnoreCase("jpeg")) {
-                PngConverter converter = new PngConverter();
-//                image = converter.convertToPng(image);
-                image = converter.convertToPngFast(image);
+            return grayscale ? toGrayscale(image) : image;
+        } catch (IOException e) {
+            System.err.println("Error when reading image: " + fileLocation);
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Converts an image to BT.709 grayscale, as readPNG does when asked to.
+     * Opaque images become TYPE_BYTE_GRAY, a single byte per pixel, images
+     * with transparency stay ARGB to keep their alpha.
+     *
+     * @param image the image to convert, left untouched
+     * @return a new grayscale image
+     */
+    public BufferedImage toGrayscale(BufferedImage image) {
+        BufferedImage gray = convertToGrayBytes(image);
+        
+        return gray != null ? gray : convertToGrayscale(image);
+    }
+    
+    /**
+     * Converts an image to BT.709 grayscale like toGrayscale, but always as
+     * ARGB, for an image converted in parts that must all end up with the
+     * same type whatever their alpha.
+     *
+     * @param image the image to convert, left untouched
+     * @return a new TYPE_INT_ARGB grayscale image
+     */
+    public BufferedImage toGrayscaleArgb(BufferedImage image) {
+        return convertToGrayscale(image);
+    }
+    
+    private BufferedImage decode(File file, int subsampling) throws IOException {
+        subsampling = Math.max(1, subsampling);
+        
+        // Uncompressed intermediates, read straight from a mapping of the file
+        if (PamCodec.isPam(file.toPath())) {
+            return new PamCodec().read(file.toPath(), subsampling);
+        }
+        
+        if (QoiCodec.isQoi(file.toPath())) {
+            return new QoiCodec().read(file.toPath(), subsampling);
+        }
+        
+        // Common PNGs are inflated and unfiltered in one pass into the pixel
+        // array, without ImageIO's 3 and 4 byte layouts
+        BufferedImage png = BandReader.readPng(file, subsampling);
+        
+        if (png != null) {
+            return png;
+        }
+        
+        try (ImageInputStream stream = ImageIO.createImageInputStream(file)) {
+            if (stream == null) {
+                throw new IOException("Cannot open " + file);
             }
             
-            if (grayscale) {
-                return convertToGrayscale(image);
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+            
+            if (!readers.hasNext()) {
+                return null;
             }
             
+            ImageReader reader = readers.next();
+            
+            try {
+                reader.setInput(stream, true, true);
+                
+                int width = reader.getWidth(0) / subsampling;
+                int height = reader.getHeight(0) / subsampling;
+                
+                if (width == 0 || height == 0) {
+                    throw new IllegalArgumentException("Image is smaller than the scale " + subsampling);
+                }
+                
+                ImageReadParam param = reader.getDefaultReadParam();
+                
+                if (subsampling > 1) {
+                    // Drop the partial blocks at the right and bottom edges, like
+                    // scaleDown's integer division
+                    param.setSourceRegion(new Rectangle(0, 0, width * subsampling, height * subsampling));
+                    
+                    // The PNG reader copies rows with a single setRect, but falls
+                    // back to one getPixel/setPixel per pixel when skipping
+                    // columns, slower than decoding everything. Skip rows there
+                    // and pick the columns here
+                    if (reader.getFormatName().equalsIgnoreCase("png")) {
+                        param.setSourceSubsampling(1, subsampling, 0, 0);
+                        
+                        return toPacked(subsampleColumns(reader.read(0, param), subsampling));
+                    }
+                    
+                    param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                }
+                
+                return toPacked(reader.read(0, param));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+    
+    /**
+     * Copies an image of any other layout into a TYPE_INT_ARGB or, without
+     * alpha, TYPE_INT_RGB image, converted once here rather than on every
+     * later getRGB. Decoding into the reader's own layout and copying is
+     * faster than having it write into a packed raster pixel by pixel.
+     */
+    private BufferedImage toPacked(BufferedImage image) {
+        if (isPacked(image.getType())) {
             return image;
-        } catch (IOException e) {
-            System.err.println("Error when reading image: " + fileLocation);
         }
         
-        return null;
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int type = image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        
+        BufferedImage packed = new BufferedImage(width, height, type);
+        
+        // 8 bit sRGB layouts, such as JPEG's, are blitted exactly; the others,
+        // 16 bit or linear gray among them, keep getRGB's conversion
+        if (image.getType() == BufferedImage.TYPE_3BYTE_BGR || image.getType() == BufferedImage.TYPE_4BYTE_ABGR
+                || image.getType() == BufferedImage.TYPE_INT_BGR) {
+            Graphics2D g = packed.createGraphics();
+            g.setComposite(AlphaComposite.Src);
+            g.drawImage(image, 0, 0, null);
+            g.dispose();
+            
+            return packed;
+        }
+        
+        int[] pixels = ((DataBufferInt) packed.getRaster().getDataBuffer()).getData();
+        
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, pixels, y * width, width);
+        }
+        
+        return packed;
+    }
+    
+    private static boolean isPacked(int type) {
+        return type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_INT_RGB
+                || type == BufferedImage.TYPE_BYTE_GRAY;
+    }
+    
+    private BufferedImage subsampleColumns(BufferedImage image, int subsampling) {
+        int width = image.getWidth() / subsampling;
+        int height = image.getHeight();
+        
+        WritableRaster src = image.getRaster();
+        WritableRaster dst = src.createCompatibleWritableRaster(width, height);
+        
+        Object pixel = null;
+        
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                pixel = src.getDataElements(x * subsampling, y, pixel);
+                dst.setDataElements(x, y, pixel);
+            }
+        }
+        
+        return new BufferedImage(image.getColorModel(), dst, image.isAlphaPremultiplied(), null);
+    }
+    
+    /**
+     * Same BT.709 gray values as convertToGrayscale, stored in a
+     * TYPE_BYTE_GRAY image. The bytes are written to the raster directly,
+     * setRGB would treat them as linear gray and convert them.
+     *
+     * @return the gray image, or null if any pixel is not fully opaque
+     */
+    private BufferedImage convertToGrayBytes(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        
+        BufferedImage out = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        byte[] gray = ((DataBufferByte) out.getRaster().getDataBuffer()).getData();
+        
+        int[] row = new int[width];
+        
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            
+            for (int x = 0; x < width; x++) {
+                int argb = row[x];
+                
+                if ((argb >>> 24) != 0xFF) {
+                    return null;
+                }
+                
+                // Same weights and order as Grayscale.bt709
+                gray[y * width + x] = (byte) (int) (((argb >> 16) & 0xff) * 0.2126
+                        + ((argb >> 8) & 0xff) * 0.7152
+                        + (argb & 0xff) * 0.0722);
+            }
+        }
+        
+        return out;
     }
     
     private BufferedImage convertToGrayscale(BufferedImage image) {
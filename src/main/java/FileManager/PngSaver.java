@@ -1,27 +1,166 @@
 package FileManager;
 
+import Dither.Util.PaletteConverter;
+
 import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import javax.imageio.ImageIO;
+import java.io.OutputStream;
 
 public class PngSaver {
-    public void saveToFile(String fileName, String originalImagePath, BufferedImage image) {
+    private final PngEncoder encoder;
+    private final ImageFormat format;
+    
+    /**
+     * Creates a saver writing with the default compression level.
+     */
+    public PngSaver() {
+        this(PngEncoder.DEFAULT_LEVEL);
+    }
+    
+    /**
+     * Creates a saver writing with the given compression level, trading
+     * speed for file size.
+     *
+     * @param level deflate level from 0 (fastest, largest) to 9 (slowest,
+     * smallest)
+     * @throws IllegalArgumentException if level is outside [0, 9]
+     */
+    public PngSaver(int level) {
+        this(level, ImageFormat.PNG);
+    }
+    
+    /**
+     * Creates a saver writing in the given format, PNG with the given
+     * compression level, or PAM or QOI.
+     *
+     * @param level deflate level from 0 (fastest, largest) to 9 (slowest,
+     * smallest), for PNG
+     * @param format the format of saved images
+     * @throws IllegalArgumentException if level is outside [0, 9]
+     */
+    public PngSaver(int level, ImageFormat format) {
+        this.encoder = new PngEncoder(level);
+        this.format = format;
+    }
+    
+    /**
+     * Writes a PNG produced piece by piece, without the image ever being held
+     * whole.
+     */
+    @FunctionalInterface
+    public interface Content {
+        /**
+         * @param encoder the encoder of this saver
+         * @param out the file being written, closed afterwards
+         * @throws IOException if writing fails
+         */
+        void writeTo(PngEncoder encoder, OutputStream out) throws IOException;
+    }
+    
+    /**
+     * Saves the image next to the original one, named after it followed by
+     * fileName, and a counter if that file already exists.
+     *
+     * @param fileName the suffix describing the applied parameters
+     * @param originalImagePath the path of the image that was processed
+     * @param image the image to save
+     * @return the path of the saved file, or null if it could not be written
+     */
+    public String saveToFile(String fileName, String originalImagePath, RenderedImage image) {
+        if (format == ImageFormat.PAM) {
+            return save(fileName, originalImagePath, format, file -> new PamCodec().write(image, file.toPath()));
+        }
+        
+        if (format == ImageFormat.QOI) {
+            return save(fileName, originalImagePath, format, file -> new QoiCodec().write(image, file.toPath()));
+        }
+        
+        RenderedImage output = withPalette(image);
+        
+        return saveToFile(fileName, originalImagePath, (pngEncoder, out) -> pngEncoder.write(output, out));
+    }
+    
+    // Few colors, as after dithering, are written as a palette of 1 to 8
+    // bits per pixel instead of 32 bit ARGB
+    private static RenderedImage withPalette(RenderedImage image) {
+        if (image instanceof BufferedImage buffered) {
+            BufferedImage indexed = PaletteConverter.toIndexed(buffered);
+            
+            if (indexed != null) {
+                return indexed;
+            }
+        }
+        
+        return image;
+    }
+    
+    /**
+     * Saves a PNG written by the caller, named like the images saved by
+     * saveToFile, whatever the format of this saver.
+     *
+     * @param fileName the suffix describing the applied parameters
+     * @param originalImagePath the path of the image that was processed
+     * @param content writes the PNG
+     * @return the path of the saved file, or null if it could not be written
+     */
+    public String saveToFile(String fileName, String originalImagePath, Content content) {
+        return save(fileName, originalImagePath, ImageFormat.PNG, file -> {
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+                content.writeTo(encoder, out);
+            }
+        });
+    }
+    
+    private String save(String fileName, String originalImagePath, ImageFormat format, Writer writer) {
         String imagePathWithoutExtension = originalImagePath.substring(0, originalImagePath.lastIndexOf('.'));
-        String newFilePath = generateNewFileName(fileName, imagePathWithoutExtension);
         
-        saveImageToFile(image, newFilePath);
+        String newFilePath;
+        
+        try {
+            newFilePath = generateNewFileName(fileName, imagePathWithoutExtension, format.extension());
+        } catch (IOException e) {
+            System.err.println("Error when saving image: " + e.getMessage());
+            
+            return null;
+        }
+        
+        boolean written = false;
+        
+        try {
+            writer.write(new File(newFilePath));
+            written = true;
+            
+            System.out.println("Image saved to: " + newFilePath);
+            
+            return newFilePath;
+        } catch (IOException e) {
+            System.err.println("Error when saving image: " + e.getMessage());
+            
+            return null;
+        } finally {
+            // The name was reserved with an empty file, removed along with
+            // whatever was written when writing fails in any way
+            if (!written) {
+                new File(newFilePath).delete();
+            }
+        }
     }
     
-    private String generateNewFileName(String fileName, String imagePathWithoutExtension) {
+    // Creates the file while picking the name, so that images saved at the
+    // same time never end up with the same one
+    private String generateNewFileName(String fileName, String imagePathWithoutExtension, String extension) throws IOException {
         String newFileName = imagePathWithoutExtension + "_" + fileName;
-        String newFilePath = newFileName + ".png";
+        String newFilePath = newFileName + "." + extension;
         
         File newFile = new File(newFilePath);
         int counter = 1;
         
-        while (newFile.exists()) {
-            newFilePath = imagePathWithoutExtension + "_" + fileName + "_" + counter + ".png";
+        while (!newFile.createNewFile()) {
+            newFilePath = imagePathWithoutExtension + "_" + fileName + "_" + counter + "." + extension;
             newFile = new File(newFilePath);
             
             counter++;
@@ -30,14 +169,9 @@ public class PngSaver {
         return newFilePath;
     }
     
-    private void saveImageToFile(BufferedImage image, String filePath) {
-        try {
-            File output = new File(filePath);
-            ImageIO.write(image, "png", output);
-            
-            System.out.println("Image saved to: " + output.toString());
-        } catch (IOException e) {
-            System.err.println("Error when saving image: " + e.getMessage());
-        }
+    // Writes the file chosen for the image
+    @FunctionalInterface
+    private interface Writer {
+        void write(File file) throws IOException;
     }
 }
\ No newline at end of file
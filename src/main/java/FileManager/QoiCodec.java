@@ -0,0 +1,515 @@
+package FileManager;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.RenderedImage;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Reads and writes QOI ("Quite OK Image") files, a lossless format encoded
+ * and decoded in a single pass with a few operations per pixel, much faster
+ * than deflate. Files are a little larger than PNGs for flat dithering with
+ * long runs, and several times larger for ordered dithering, whose repeated
+ * patterns deflate finds and QOI does not.
+ *
+ * Both directions work on packed 0xAARRGGBB ints, the pixels of
+ * TYPE_INT_ARGB and TYPE_INT_RGB images, one row at a time. Images with 4
+ * channels are read as TYPE_INT_ARGB, with 3 as TYPE_INT_RGB. QOI has no
+ * gray images; single band gray images are written as RGB with their bytes
+ * as they are, like gray PNGs are read.
+ *
+ * See https://qoiformat.org/qoi-specification.pdf
+ */
+public class QoiCodec {
+    /**
+     * File extension of written images.
+     */
+    public static final String EXTENSION = "qoi";
+
+    private static final int MAGIC = 0x716F6966; // "qoif"
+    private static final int HEADER_SIZE = 14;
+
+    private static final int OP_INDEX = 0x00, OP_DIFF = 0x40, OP_LUMA = 0x80, OP_RUN = 0xC0;
+    private static final int OP_RGB = 0xFE, OP_RGBA = 0xFF;
+    private static final int MASK = 0xC0;
+    private static final int MAX_RUN = 62;
+
+    private static final byte[] END = { 0, 0, 0, 0, 0, 0, 0, 1 };
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // Pixels encoded between checks for room in the buffer
+    private static final int CHUNK = BUFFER_SIZE / 8;
+
+    /**
+     * Tells whether a file starts like a QOI image.
+     *
+     * @param file the file to check
+     * @return true if the file starts with the QOI magic bytes
+     * @throws IOException if the file cannot be read
+     */
+    public static boolean isQoi(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] magic = in.readNBytes(4);
+
+            return magic.length == 4 && readInt(magic, 0) == MAGIC;
+        }
+    }
+
+    /**
+     * Reads the size of an image from its header, without its pixels.
+     *
+     * @param file the image file
+     * @return the width and height in pixels
+     * @throws IOException if the file cannot be read or is not a valid QOI
+     * image
+     */
+    public static Dimension size(Path file) throws IOException {
+        try (Decoder qoi = new Decoder(Files.newInputStream(file))) {
+            return new Dimension(qoi.width, qoi.height);
+        }
+    }
+
+    /**
+     * Reads an image keeping only one pixel out of every subsampling ×
+     * subsampling block, the top-left one, like PngReader.readPNG. Every
+     * pixel is still decoded, QOI cannot skip any.
+     *
+     * @param file the image file
+     * @param subsampling the integer factor by which to reduce width and
+     * height, 1 to read the whole image
+     * @return the image
+     * @throws IOException if the file cannot be read or is not a valid QOI
+     * image
+     * @throws IllegalArgumentException if the image is smaller than the
+     * subsampling factor
+     */
+    public BufferedImage read(Path file, int subsampling) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return read(in, subsampling);
+        }
+    }
+
+    /**
+     * Reads an image from a stream like read(Path, int). The stream is left
+     * open, but more than the image may have been read from it.
+     *
+     * @param in the stream to read
+     * @param subsampling the integer factor by which to reduce width and
+     * height, 1 to read the whole image
+     * @return the image
+     * @throws IOException if reading fails or the data is not a valid QOI
+     * image
+     * @throws IllegalArgumentException if the image is smaller than the
+     * subsampling factor
+     */
+    public BufferedImage read(InputStream in, int subsampling) throws IOException {
+        Decoder decoder = new Decoder(in);
+        int width = decoder.width / subsampling;
+        int height = decoder.height / subsampling;
+
+        if (width == 0 || height == 0) {
+            throw new IllegalArgumentException("Image is smaller than the scale " + subsampling);
+        }
+
+        BufferedImage image = new BufferedImage(width, height, decoder.imageType());
+        int[] argb = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+
+        if (subsampling == 1) {
+            for (int y = 0; y < height; y++) {
+                decoder.readRow(argb, y * width);
+            }
+
+            return image;
+        }
+
+        int[] row = new int[decoder.width];
+
+        for (int y = 0; y < height; y++) {
+            decoder.readRow(row, 0);
+
+            for (int x = 0; x < width; x++) {
+                argb[y * width + x] = row[x * subsampling];
+            }
+
+            // The other rows of the block
+            for (int skip = 1; skip < subsampling; skip++) {
+                decoder.readRow(row, 0);
+            }
+        }
+
+        return image;
+    }
+
+    /**
+     * Writes the image as a QOI file, replacing it if it exists.
+     *
+     * @param image the image to write
+     * @param file the file to write
+     * @throws IOException if writing fails
+     */
+    public void write(RenderedImage image, Path file) throws IOException {
+        try (OutputStream out = Files.newOutputStream(file)) {
+            write(image, out);
+        }
+    }
+
+    /**
+     * Writes the image as QOI to a stream, with 4 channels if it has alpha
+     * and 3 otherwise. The pixels of TYPE_INT_ARGB and TYPE_INT_RGB images
+     * are encoded straight from their array, other images are converted a
+     * row at a time. The stream is left open.
+     *
+     * @param image the image to write
+     * @param out the stream to write to
+     * @throws IOException if writing fails
+     */
+    public void write(RenderedImage image, OutputStream out) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        boolean gray = PngEncoder.isGray(image);
+        boolean alpha = !gray && image.getColorModel().hasAlpha();
+
+        Encoder encoder = new Encoder(out, width, height, alpha);
+        int[] packed = packedPixels(image);
+
+        if (packed != null) {
+            for (int y = 0; y < height; y++) {
+                encoder.writeRow(packed, y * width);
+            }
+        } else {
+            PngEncoder.Rows rows = new PngEncoder.Rows(image);
+            byte[] grayRow = gray ? new byte[width] : null;
+            int[] row = new int[width];
+
+            for (int y = 0; y < height; y++) {
+                if (gray) {
+                    rows.samples(y, grayRow);
+
+                    for (int x = 0; x < width; x++) {
+                        row[x] = 0xFF000000 | (grayRow[x] & 0xFF) * 0x010101;
+                    }
+                } else {
+                    rows.argb(y, row);
+                }
+
+                encoder.writeRow(row, 0);
+            }
+        }
+
+        encoder.finish();
+    }
+
+    // The pixel array of images whose ints already are 0xAARRGGBB, or null
+    private static int[] packedPixels(RenderedImage image) {
+        if (image instanceof BufferedImage buffered
+                && (buffered.getType() == BufferedImage.TYPE_INT_ARGB || buffered.getType() == BufferedImage.TYPE_INT_RGB)
+                && buffered.getRaster().getParent() == null
+                && buffered.getRaster().getDataBuffer().getNumBanks() == 1
+                && buffered.getRaster().getDataBuffer().getOffset() == 0) {
+            return ((DataBufferInt) buffered.getRaster().getDataBuffer()).getData();
+        }
+
+        return null;
+    }
+
+    private static int hash(int argb) {
+        return ((argb >> 16 & 0xFF) * 3 + (argb >> 8 & 0xFF) * 5 + (argb & 0xFF) * 7 + (argb >>> 24) * 11) & 63;
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return (data[offset] & 0xFF) << 24 | (data[offset + 1] & 0xFF) << 16
+                | (data[offset + 2] & 0xFF) << 8 | (data[offset + 3] & 0xFF);
+    }
+
+    /**
+     * Encodes pixels row after row, keeping the state of the format between
+     * rows, since runs and differences continue across them.
+     */
+    static class Encoder {
+        private final OutputStream out;
+        private final int width;
+        private final boolean alpha;
+
+        private final int[] index = new int[64];
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int length = 0;
+
+        private int previous = 0xFF000000;
+        private int run = 0;
+
+        Encoder(OutputStream out, int width, int height, boolean alpha) throws IOException {
+            this.out = out;
+            this.width = width;
+            this.alpha = alpha;
+
+            if (width <= 0 || height <= 0) {
+                throw new IllegalArgumentException("Image must not be empty: " + width + "x" + height);
+            }
+
+            putInt(MAGIC);
+            putInt(width);
+            putInt(height);
+            buffer[length++] = (byte) (alpha ? 4 : 3);
+            buffer[length++] = 0; // sRGB with linear alpha
+        }
+
+        /**
+         * Encodes one row of pixels.
+         *
+         * @param argb the pixels as 0xAARRGGBB
+         * @param offset index in the array of the first pixel of the row
+         * @throws IOException if writing fails
+         */
+        void writeRow(int[] argb, int offset) throws IOException {
+            for (int start = offset; start < offset + width; start += CHUNK) {
+                int end = Math.min(start + CHUNK, offset + width);
+
+                // Room for every pixel as a 5 byte RGBA op
+                if (length + (end - start) * 5 > buffer.length) {
+                    flush();
+                }
+
+                writePixels(argb, start, end);
+            }
+        }
+
+        private void writePixels(int[] argb, int start, int end) {
+            byte[] buf = buffer;
+            int[] index = this.index;
+            int previous = this.previous;
+            int run = this.run;
+            int p = length;
+
+            for (int i = start; i < end; i++) {
+                int px = alpha ? argb[i] : argb[i] | 0xFF000000;
+
+                if (px == previous) {
+                    if (++run == MAX_RUN) {
+                        buf[p++] = (byte) (OP_RUN | (run - 1));
+                        run = 0;
+                    }
+
+                    continue;
+                }
+
+                if (run > 0) {
+                    buf[p++] = (byte) (OP_RUN | (run - 1));
+                    run = 0;
+                }
+
+                p = encode(px, previous, index, buf, p);
+                previous = px;
+            }
+
+            this.previous = previous;
+            this.run = run;
+            length = p;
+        }
+
+        // One pixel that differs from the previous one, returns the new end
+        private static int encode(int px, int previous, int[] index, byte[] buf, int p) {
+            int slot = hash(px);
+
+            if (index[slot] == px) {
+                buf[p++] = (byte) (OP_INDEX | slot);
+
+                return p;
+            }
+
+            index[slot] = px;
+
+            if ((px ^ previous) >>> 24 != 0) {
+                buf[p++] = (byte) OP_RGBA;
+                buf[p++] = (byte) (px >> 16);
+                buf[p++] = (byte) (px >> 8);
+                buf[p++] = (byte) px;
+                buf[p++] = (byte) (px >>> 24);
+
+                return p;
+            }
+
+            // Channel differences, wrapping around like bytes
+            int vr = (byte) ((px >> 16) - (previous >> 16));
+            int vg = (byte) ((px >> 8) - (previous >> 8));
+            int vb = (byte) (px - previous);
+
+            int vgr = vr - vg;
+            int vgb = vb - vg;
+
+            if (vr >= -2 && vr <= 1 && vg >= -2 && vg <= 1 && vb >= -2 && vb <= 1) {
+                buf[p++] = (byte) (OP_DIFF | (vr + 2) << 4 | (vg + 2) << 2 | (vb + 2));
+            } else if (vg >= -32 && vg <= 31 && vgr >= -8 && vgr <= 7 && vgb >= -8 && vgb <= 7) {
+                buf[p++] = (byte) (OP_LUMA | (vg + 32));
+                buf[p++] = (byte) ((vgr + 8) << 4 | (vgb + 8));
+            } else {
+                buf[p++] = (byte) OP_RGB;
+                buf[p++] = (byte) (px >> 16);
+                buf[p++] = (byte) (px >> 8);
+                buf[p++] = (byte) px;
+            }
+
+            return p;
+        }
+
+        /**
+         * Ends the pending run and writes the end marker. The stream is
+         * flushed but not closed.
+         *
+         * @throws IOException if writing fails
+         */
+        void finish() throws IOException {
+            if (length + 1 + END.length > buffer.length) {
+                flush();
+            }
+
+            if (run > 0) {
+                buffer[length++] = (byte) (OP_RUN | (run - 1));
+                run = 0;
+            }
+
+            System.arraycopy(END, 0, buffer, length, END.length);
+            length += END.length;
+
+            flush();
+            out.flush();
+        }
+
+        private void putInt(int value) {
+            buffer[length++] = (byte) (value >>> 24);
+            buffer[length++] = (byte) (value >>> 16);
+            buffer[length++] = (byte) (value >>> 8);
+            buffer[length++] = (byte) value;
+        }
+
+        private void flush() throws IOException {
+            out.write(buffer, 0, length);
+            length = 0;
+        }
+    }
+
+    /**
+     * Decodes pixels row after row from a stream, its header read on
+     * creation.
+     */
+    static class Decoder implements Closeable {
+        final int width, height, channels;
+
+        private final InputStream in;
+
+        private final int[] index = new int[64];
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int position = 0, limit = 0;
+
+        private int previous = 0xFF000000;
+        private int run = 0;
+
+        Decoder(InputStream in) throws IOException {
+            this.in = in;
+
+            byte[] header = in.readNBytes(HEADER_SIZE);
+
+            if (header.length < HEADER_SIZE || readInt(header, 0) != MAGIC) {
+                throw new IOException("Not a QOI file");
+            }
+
+            width = readInt(header, 4);
+            height = readInt(header, 8);
+            channels = header[12];
+
+            if (width <= 0 || height <= 0 || (long) width * height > Integer.MAX_VALUE
+                    || (channels != 3 && channels != 4)) {
+                throw new IOException("Unsupported QOI image " + Integer.toUnsignedString(width) + "x"
+                        + Integer.toUnsignedString(height) + " with " + channels + " channels");
+            }
+        }
+
+        int imageType() {
+            return channels == 4 ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        }
+
+        /**
+         * Decodes the next row.
+         *
+         * @param argb the array to fill with pixels as 0xAARRGGBB
+         * @param offset index in the array of the first pixel of the row
+         * @throws IOException if reading fails or the data ends early
+         */
+        void readRow(int[] argb, int offset) throws IOException {
+            int[] index = this.index;
+            int px = previous;
+            int end = offset + width;
+
+            for (int i = offset; i < end; i++) {
+                if (run > 0) {
+                    run--;
+                    argb[i] = px;
+
+                    continue;
+                }
+
+                int b1 = next();
+
+                if (b1 == OP_RGB) {
+                    px = (px & 0xFF000000) | next() << 16 | next() << 8 | next();
+                } else if (b1 == OP_RGBA) {
+                    px = next() << 16 | next() << 8 | next();
+                    px |= next() << 24;
+                } else {
+                    switch (b1 & MASK) {
+                        case OP_INDEX -> px = index[b1];
+                        case OP_DIFF -> px = add(px, ((b1 >> 4) & 3) - 2, ((b1 >> 2) & 3) - 2, (b1 & 3) - 2);
+                        case OP_LUMA -> {
+                            int b2 = next();
+                            int vg = (b1 & 0x3F) - 32;
+
+                            px = add(px, vg - 8 + (b2 >> 4), vg, vg - 8 + (b2 & 0x0F));
+                        }
+                        default -> run = b1 & 0x3F;
+                    }
+                }
+
+                index[hash(px)] = px;
+                argb[i] = px;
+            }
+
+            previous = px;
+        }
+
+        // Adds to each color channel, wrapping around like bytes
+        private static int add(int px, int dr, int dg, int db) {
+            int r = (px >> 16) + dr & 0xFF;
+            int g = (px >> 8) + dg & 0xFF;
+            int b = px + db & 0xFF;
+
+            return (px & 0xFF000000) | r << 16 | g << 8 | b;
+        }
+
+        private int next() throws IOException {
+            if (position == limit) {
+                limit = in.read(buffer, 0, buffer.length);
+                position = 0;
+
+                if (limit <= 0) {
+                    limit = 0;
+
+                    throw new EOFException("QOI data ends early");
+                }
+            }
+
+            return buffer[position++] & 0xFF;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,383 @@
+package Util;
+
+import Dither.BatchPipeline;
+import Dither.Pipeline;
+import Dither.Pipeline.Stage;
+import Dither.PipelineResult;
+import Dither.Util.TYPE;
+import Dither.Util.WorkerPool;
+
+import FileManager.BandReader;
+import FileManager.ImageFormat;
+import FileManager.PngEncoder;
+import FileManager.PngSaver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Command line mode: dithers every given image without opening a window and
+ * saves the results next to them, named the same way as from the viewer.
+ * Files go through a BatchPipeline, decoding, dithering and encoding
+ * different files at the same time with a bounded number of images in
+ * memory, however many files are given. With --stream, files are instead
+ * dithered one at a time, a band of rows at a time, for images larger than
+ * the memory.
+ */
+public class BatchRunner {
+    private static final String IMAGE_FILES = "glob:**.{png,jpg,jpeg,pam,ppm,pgm,qoi,PNG,JPG,JPEG,PAM,PPM,PGM,QOI}";
+
+    private static final String USAGE = String.join("\n",
+            "Usage: java -Djava.awt.headless=true -jar ColorBanding.jar [options] <files, directories or globs>",
+            "  --type NAME       Dithering algorithm, one of " + List.of(TYPE.values()) + " (default Simple)",
+            "  --levels N        Color levels per channel, 2 to 256 (default 2)",
+            "  --scale N         Pixel size, 1 to 8 (default 1)",
+            "  --spread D        Spread, 0 to 1 (default 0.5)",
+            "  --range           Quantize to the luminance range of the image",
+            "  --hsb             Quantize in HSB instead of RGB",
+            "  --grayscale       Convert to grayscale first",
+            "  --jobs N          Files dithered at once (default: number of processors)",
+            "  --threads N       Threads per file (default: processors divided by jobs)",
+            "  --decoders N      Files decoded at once (default: half the jobs)",
+            "  --encoders N      Files encoded at once (default: half the jobs)",
+            "  --max-images N    Decoded images held in memory at once (default: twice the jobs)",
+            "  --compression N   PNG deflate level, 0 to 9 (default " + PngEncoder.DEFAULT_LEVEL + ")",
+            "  --format NAME     Format of saved images, png, pam (uncompressed, fastest) or qoi (default png)",
+            "  --stream          Dither one file at a time in bands of rows, for images larger than the memory");
+
+    private TYPE operation = TYPE.Simple;
+    private int colorLevels = 2;
+    private int scale = 1;
+    private double spread = 0.5;
+    private boolean rangeQ = false;
+    private boolean useHsb = false;
+    private boolean grayscale = false;
+    private int jobs = WorkerPool.defaultThreads();
+    private int threads = 0;
+    private int decoders = 0;
+    private int encoders = 0;
+    private int maxImages = 0;
+    private int compression = PngEncoder.DEFAULT_LEVEL;
+    private ImageFormat format = ImageFormat.PNG;
+    private boolean stream = false;
+    private final List<String> inputs = new ArrayList<>();
+
+    /**
+     * Parses the arguments, processes every image they name and prints a
+     * summary.
+     *
+     * @param args options followed by files, directories or glob patterns
+     * @return the exit status: 0 if every file was saved, 1 if some failed, 2
+     * if the arguments are invalid
+     */
+    public static int run(String[] args) {
+        BatchRunner runner = new BatchRunner();
+
+        try {
+            runner.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+
+            return 2;
+        }
+
+        return runner.processAll();
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--type" -> operation = parseType(value(args, ++i));
+                case "--levels" -> colorLevels = parseInt(value(args, ++i), "--levels", 2, 256);
+                case "--scale" -> scale = parseInt(value(args, ++i), "--scale", 1, 8);
+                case "--spread" -> spread = parseSpread(value(args, ++i));
+                case "--range" -> rangeQ = true;
+                case "--hsb" -> useHsb = true;
+                case "--grayscale" -> grayscale = true;
+                case "--jobs" -> jobs = parseInt(value(args, ++i), "--jobs", 1, 1024);
+                case "--threads" -> threads = parseInt(value(args, ++i), "--threads", 1, 1024);
+                case "--decoders" -> decoders = parseInt(value(args, ++i), "--decoders", 1, 1024);
+                case "--encoders" -> encoders = parseInt(value(args, ++i), "--encoders", 1, 1024);
+                case "--max-images" -> maxImages = parseInt(value(args, ++i), "--max-images", 1, 4096);
+                case "--compression" -> compression = parseInt(value(args, ++i), "--compression", 0, 9);
+                case "--format" -> format = parseFormat(value(args, ++i));
+                case "--stream" -> stream = true;
+                default -> {
+                    if (args[i].startsWith("--")) {
+                        throw new IllegalArgumentException("Unknown option: " + args[i]);
+                    }
+
+                    inputs.add(args[i]);
+                }
+            }
+        }
+
+        if (inputs.isEmpty()) {
+            throw new IllegalArgumentException("No input files given");
+        }
+
+        if (stream && format != ImageFormat.PNG) {
+            throw new IllegalArgumentException("--stream only writes png");
+        }
+
+        // Jobs already keep the processors busy, each file only gets its
+        // share. Streamed files go one at a time and get them all
+        if (threads == 0) {
+            threads = stream ? WorkerPool.defaultThreads() : Math.max(1, WorkerPool.defaultThreads() / jobs);
+        }
+
+        // Decoding and encoding overlap dithering, they need fewer workers
+        if (decoders == 0) {
+            decoders = Math.max(1, jobs / 2);
+        }
+
+        if (encoders == 0) {
+            encoders = Math.max(1, jobs / 2);
+        }
+
+        if (maxImages == 0) {
+            maxImages = 2 * jobs;
+        }
+    }
+
+    private int processAll() {
+        List<File> files = expand(inputs);
+
+        if (files.isEmpty()) {
+            System.err.println("No images found in " + inputs);
+
+            return 1;
+        }
+
+        Pipeline pipeline = new Pipeline(colorLevels, scale, spread, rangeQ, useHsb, operation, grayscale, threads);
+        PngSaver saver = new PngSaver(compression, format);
+
+        if (stream) {
+            return streamAll(files, pipeline, saver);
+        }
+
+        BatchPipeline batch = new BatchPipeline(pipeline, decoders, jobs, encoders, maxImages);
+
+        System.out.println("Processing " + files.size() + " files: " + decoders + " decoding, " + jobs
+                + " dithering with " + threads + " threads each, " + encoders + " encoding, at most "
+                + maxImages + " images in memory");
+
+        AtomicLong pixels = new AtomicLong();
+        long start = System.nanoTime();
+        int saved = 0;
+
+        try {
+            saved = batch.run(files.stream().map(File::getPath).toList(), (path, result) -> {
+                if (pipeline.save(result, path, saver) == null) {
+                    throw new IOException("Could not save image");
+                }
+
+                pixels.addAndGet(result.getOutputPixels());
+
+                System.out.printf("%s: %.1f MP, %s%n", path, result.getOutputPixels() / 1e6, stageTimes(result));
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        int failed = files.size() - saved;
+
+        System.out.printf("%d files saved, %d failed in %.2f s: %.2f files/s, %.2f MP/s%n",
+                saved, failed, seconds, saved / seconds, pixels.get() / 1e6 / seconds);
+
+        return failed == 0 ? 0 : 1;
+    }
+
+    private int streamAll(List<File> files, Pipeline pipeline, PngSaver saver) {
+        System.out.println("Streaming " + files.size() + " files one at a time with " + threads + " threads");
+
+        long pixels = 0;
+        long start = System.nanoTime();
+        int saved = 0;
+
+        for (File file : files) {
+            String path = file.getPath();
+            long fileStart = System.nanoTime();
+
+            try {
+                long outputPixels = outputPixels(path);
+
+                if (pipeline.streamToFile(path, saver) == null) {
+                    continue;
+                }
+
+                saved++;
+                pixels += outputPixels;
+
+                System.out.printf("%s: %.1f MP, %d ms%n", path, outputPixels / 1e6, (System.nanoTime() - fileStart) / 1_000_000);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Error when processing image: " + path + ": " + e.getMessage());
+            }
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        int failed = files.size() - saved;
+
+        System.out.printf("%d files saved, %d failed in %.2f s: %.2f files/s, %.2f MP/s%n",
+                saved, failed, seconds, saved / seconds, pixels / 1e6 / seconds);
+
+        return failed == 0 ? 0 : 1;
+    }
+
+    // Size of the saved image, from the header
+    private long outputPixels(String path) throws IOException {
+        try (BandReader reader = BandReader.open(path, scale)) {
+            return (long) reader.getWidth() * reader.getHeight() * scale * scale;
+        }
+    }
+
+    private static String stageTimes(PipelineResult result) {
+        StringBuilder times = new StringBuilder();
+
+        for (Map.Entry<Stage, Long> time : result.getTimes().entrySet()) {
+            if (times.length() > 0) {
+                times.append(", ");
+            }
+
+            times.append(time.getKey().name().toLowerCase()).append(' ').append(time.getValue() / 1_000_000).append(" ms");
+        }
+
+        return times.toString();
+    }
+
+    // Files as given, image files of directories and files matching globs,
+    // each only once and in a stable order
+    private static List<File> expand(List<String> inputs) {
+        Set<File> files = new LinkedHashSet<>();
+        PathMatcher images = FileSystems.getDefault().getPathMatcher(IMAGE_FILES);
+
+        for (String input : inputs) {
+            if (isGlob(input)) {
+                files.addAll(matchGlob(input, images));
+            } else if (new File(input).isDirectory()) {
+                files.addAll(list(Paths.get(input), 1, path -> images.matches(path)));
+            } else {
+                files.add(new File(input));
+            }
+        }
+
+        return new ArrayList<>(files);
+    }
+
+    private static boolean isGlob(String input) {
+        return input.chars().anyMatch(c -> c == '*' || c == '?' || c == '[' || c == '{');
+    }
+
+    // Walks from the deepest directory without wildcards, as far down as the
+    // pattern can reach
+    private static List<File> matchGlob(String pattern, PathMatcher images) {
+        Path path = Paths.get(pattern);
+        Path base = path.isAbsolute() ? path.getRoot() : Paths.get("");
+        int fixed = 0;
+
+        for (Path part : path) {
+            if (isGlob(part.toString()) || fixed == path.getNameCount() - 1) {
+                break;
+            }
+
+            base = base.resolve(part);
+            fixed++;
+        }
+
+        boolean recursive = pattern.contains("**");
+        int depth = recursive ? Integer.MAX_VALUE : path.getNameCount() - fixed;
+
+        boolean here = base.toString().isEmpty();
+        Path start = here ? Paths.get(".") : base;
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+
+        return list(start, depth, file -> matcher.matches(here ? start.relativize(file) : file) && images.matches(file));
+    }
+
+    private static List<File> list(Path dir, int depth, PathMatcher filter) {
+        if (!Files.isDirectory(dir)) {
+            return List.of();
+        }
+
+        try (Stream<Path> paths = Files.walk(dir, depth)) {
+            return paths.filter(Files::isRegularFile)
+                    .filter(filter::matches)
+                    .sorted()
+                    .map(Path::toFile)
+                    .toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String value(String[] args, int i) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + args[i - 1]);
+        }
+
+        return args[i];
+    }
+
+    private static int parseInt(String value, String option, int min, int max) {
+        try {
+            int n = Integer.parseInt(value);
+
+            if (n >= min && n <= max) {
+                return n;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below with the expected range
+        }
+
+        throw new IllegalArgumentException(option + " must be an integer from " + min + " to " + max + ", got " + value);
+    }
+
+    private static double parseSpread(String value) {
+        try {
+            double d = Double.parseDouble(value);
+
+            if (d >= 0 && d <= 1) {
+                return d;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below with the expected range
+        }
+
+        throw new IllegalArgumentException("--spread must be a number from 0 to 1, got " + value);
+    }
+
+    private static ImageFormat parseFormat(String value) {
+        for (ImageFormat f : ImageFormat.values()) {
+            if (f.extension().equalsIgnoreCase(value)) {
+                return f;
+            }
+        }
+
+        throw new IllegalArgumentException("--format must be one of png, pam, qoi, got " + value);
+    }
+
+    private static TYPE parseType(String value) {
+        for (TYPE type : TYPE.values()) {
+            if (type.name().equalsIgnoreCase(value)) {
+                return type;
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown type " + value + ", expected one of " + List.of(TYPE.values()));
+    }
+}
@@ -0,0 +1,436 @@
+package Util;
+
+import Dither.DiffusionDithering;
+import Dither.HsbQuantization;
+import Dither.OrderedDithering;
+import Dither.Interface.RgbQuantizer;
+
+import Dither.Util.PaletteConverter;
+import Dither.Util.VectorSupport;
+import Dither.Util.WorkerPool;
+
+import FileManager.PngEncoder;
+import FileManager.PngReader;
+import FileManager.QoiCodec;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import javax.imageio.ImageIO;
+
+public class Benchmark {
+    private static final int RUNS = 3;
+
+    // Untimed runs before measuring the short per-pixel loops, so both paths
+    // are compiled by the JIT first
+    private static final int WARMUP = 10;
+
+    /**
+     * Runs the performance checks and prints their results.
+     *
+     * Usage: Benchmark [image path]. Without an image, a 12 MP synthetic
+     * image is used. PNG and QOI output are measured on the images of the
+     * examples folder, when run from the project directory.
+     *
+     * @param args optional path of the image to benchmark with
+     */
+    public static void main(String[] args) {
+        BufferedImage image = args.length > 0 ? new PngReader().readPNG(args[0], false) : syntheticImage(4000, 3000);
+
+        diffusionScaling(image);
+        vectorThroughput(image);
+        hsbThroughput(image);
+        pngEncoding(image);
+
+        File[] examples = new File("examples").listFiles((dir, name) -> name.toLowerCase().endsWith(".png"));
+
+        if (examples != null) {
+            Arrays.sort(examples);
+            paletteOutput(examples);
+            qoiCodec(examples);
+        }
+    }
+
+    /**
+     * Times wavefront-parallel error diffusion from 1 thread up to every
+     * available processor, and checks that every thread count produces the
+     * exact same pixels as the serial path.
+     *
+     * @param image the image to dither, left untouched
+     */
+    public static void diffusionScaling(BufferedImage image) {
+        System.out.println("Error diffusion scaling, " + megapixels(image) + " MP");
+
+        scaling("Floyd-Steinberg", image, (dd, img) -> dd.applyFloydSteinberg(img));
+        scaling("JJN", image, (dd, img) -> dd.applyJarvisJudiceNinke(img));
+        scaling("Stucki", image, (dd, img) -> dd.applyStucki(img));
+    }
+
+    private static void scaling(String label, BufferedImage image, BiConsumer<DiffusionDithering, BufferedImage> algorithm) {
+        int[] reference = null;
+        long serialTime = 0;
+
+        for (int threads = 1; threads <= WorkerPool.defaultThreads(); threads *= 2) {
+            final int t = threads;
+            int[][] output = new int[1][];
+
+            long time = bestOf(() -> {
+                BufferedImage copy = copy(image);
+
+                algorithm.accept(new DiffusionDithering(new RgbQuantizer(), 4, false, 1.0, t), copy);
+
+                output[0] = pixels(copy);
+            });
+
+            if (reference == null) {
+                reference = output[0];
+                serialTime = time;
+            }
+
+            boolean identical = Arrays.equals(reference, output[0]);
+
+            System.out.printf("  %-16s %2d threads: %6d ms  speedup %.2fx  %s%n",
+                    label, threads, time, (double) serialTime / time, identical ? "identical" : "MISMATCH");
+        }
+    }
+
+    /**
+     * Compares the scalar lookup table loops with the SIMD kernels on a single
+     * thread, and checks that both produce the exact same pixels. Needs
+     * {@code --add-modules jdk.incubator.vector}, otherwise only the scalar
+     * path is timed.
+     *
+     * @param image the image to process, left untouched
+     */
+    public static void vectorThroughput(BufferedImage image) {
+        System.out.println("Scalar vs SIMD, " + megapixels(image) + " MP, vector kernels "
+                + (VectorSupport.isEnabled() ? "available" : "not available"));
+
+        throughput("Uniform", image, img -> new RgbQuantizer().quantizeImage(img, 4, false));
+        throughput("Range", image, img -> new RgbQuantizer().quantizeImage(img, 4, true));
+        throughput("Bayer 8x8", image, img -> new OrderedDithering(new RgbQuantizer(), 8, 4, false, 1.0).applyDither(img));
+    }
+
+    private static void throughput(String label, BufferedImage image, Consumer<BufferedImage> algorithm) {
+        boolean available = VectorSupport.isEnabled();
+        int[][] output = new int[2][];
+        long[] time = new long[2];
+
+        for (int i = 0; i < (available ? 2 : 1); i++) {
+            VectorSupport.setEnabled(i == 1);
+            time[i] = Long.MAX_VALUE;
+
+            // Only the algorithm is timed, copying the image costs more than quantizing it
+            for (int run = 0; run < WARMUP + RUNS; run++) {
+                BufferedImage copy = copy(image);
+
+                long start = System.nanoTime();
+                algorithm.accept(copy);
+
+                if (run >= WARMUP) {
+                    time[i] = Math.min(time[i], (System.nanoTime() - start) / 1_000);
+                }
+
+                output[i] = pixels(copy);
+            }
+        }
+
+        VectorSupport.setEnabled(available);
+
+        double pixels = image.getWidth() * (double) image.getHeight();
+
+        if (!available) {
+            System.out.printf("  %-10s scalar %7.1f MP/s%n", label, pixels / Math.max(1, time[0]));
+
+            return;
+        }
+
+        boolean identical = Arrays.equals(output[0], output[1]);
+
+        System.out.printf("  %-10s scalar %7.1f MP/s  SIMD %7.1f MP/s  speedup %.2fx  %s%n",
+                label, pixels / Math.max(1, time[0]), pixels / Math.max(1, time[1]),
+                (double) time[0] / Math.max(1, time[1]), identical ? "identical" : "MISMATCH");
+    }
+
+    /**
+     * Compares HSB brightness quantization through the scale factor tables
+     * with the conversion to HSB and back it replaces, and reports the
+     * largest channel difference between the two (at most 1 is expected).
+     *
+     * @param image the image to process, left untouched
+     */
+    public static void hsbThroughput(BufferedImage image) {
+        System.out.println("HSB brightness, " + megapixels(image) + " MP");
+
+        HsbQuantization hsb = new HsbQuantization();
+
+        hsbThroughput("Uniform", image, hsb, 4, false, 0, 0);
+        hsbThroughput("Range", image, hsb, 4, true, 0.2, 0.8);
+    }
+
+    private static void hsbThroughput(String label, BufferedImage image, HsbQuantization hsb,
+            int levels, boolean rangeQ, double min, double max) {
+        int[] source = pixels(image);
+        int[] table = rangeQ ? hsb.rangeTable(levels, min, max) : hsb.uniformTable(levels);
+
+        int[] reference = new int[source.length];
+        int[] fast = new int[source.length];
+
+        long referenceTime = bestOf(() -> {
+            for (int i = 0; i < source.length; i++) {
+                reference[i] = hsb.quantizeArgbThroughHsb(source[i], levels, rangeQ, min, max);
+            }
+        });
+
+        long fastTime = bestOf(() -> {
+            for (int i = 0; i < source.length; i++) {
+                fast[i] = hsb.quantizeArgb(source[i], table);
+            }
+        });
+
+        int maxDiff = 0;
+
+        for (int i = 0; i < source.length; i++) {
+            for (int shift = 0; shift < 24; shift += 8) {
+                maxDiff = Math.max(maxDiff, Math.abs(((reference[i] >> shift) & 0xFF) - ((fast[i] >> shift) & 0xFF)));
+            }
+        }
+
+        double pixels = source.length / 1000.0;
+
+        System.out.printf("  %-10s HSB %7.1f MP/s  table %7.1f MP/s  speedup %.2fx  max difference %d%n",
+                label, pixels / Math.max(1, referenceTime), pixels / Math.max(1, fastTime),
+                (double) referenceTime / Math.max(1, fastTime), maxDiff);
+    }
+
+    /**
+     * Dithers each image with Floyd-Steinberg at 2 and 4 levels per channel
+     * (8 and 64 colors), then compares encoding the result as 32 bit ARGB
+     * with encoding it as a palette PNG, in time and in file size. Checks
+     * that the palette PNG decodes to the same pixels.
+     *
+     * @param files the images to dither
+     */
+    public static void paletteOutput(File[] files) {
+        System.out.println("PNG output, ARGB vs palette");
+
+        for (File file : files) {
+            BufferedImage image = new PngReader().readPNG(file.getPath(), false);
+
+            if (image == null) {
+                continue;
+            }
+
+            for (int levels : new int[]{ 2, 4 }) {
+                BufferedImage dithered = copy(image);
+                new DiffusionDithering(new RgbQuantizer(), levels, false, 1.0).applyFloydSteinberg(dithered);
+
+                BufferedImage indexed = PaletteConverter.toIndexed(dithered);
+
+                if (indexed == null) {
+                    System.out.printf("  %-40s %d levels: too many colors%n", file.getName(), levels);
+
+                    continue;
+                }
+
+                byte[][] encoded = new byte[2][];
+
+                long argbTime = bestOf(() -> encoded[0] = encode(dithered));
+                long indexedTime = bestOf(() -> encoded[1] = encode(indexed));
+
+                boolean identical = Arrays.equals(pixels(dithered), pixels(decode(encoded[1])));
+
+                System.out.printf("  %-40s %d levels, %d bit: ARGB %5d ms %8d KB  palette %5d ms %8d KB  "
+                        + "time %.1fx  size %.1fx  %s%n",
+                        file.getName(), levels, indexed.getColorModel().getPixelSize(),
+                        argbTime, encoded[0].length / 1024, indexedTime, encoded[1].length / 1024,
+                        (double) argbTime / Math.max(1, indexedTime), (double) encoded[0].length / encoded[1].length,
+                        identical ? "identical" : "MISMATCH");
+            }
+        }
+    }
+
+    /**
+     * Compares QOI with the ImageIO PNG path, writing and reading back each
+     * image as it is and after the cheap Simple and Bayer 8x8 ditherings,
+     * whose files are written and read most often. Checks that QOI decodes
+     * to the same pixels as the image written.
+     *
+     * @param files the images to encode
+     */
+    public static void qoiCodec(File[] files) {
+        System.out.println("QOI vs ImageIO PNG, write and read");
+
+        QoiCodec qoi = new QoiCodec();
+
+        for (File file : files) {
+            BufferedImage image = new PngReader().readPNG(file.getPath(), false);
+
+            if (image == null) {
+                continue;
+            }
+
+            BufferedImage simple = copy(image);
+            new RgbQuantizer().quantizeImage(simple, 4, false);
+
+            BufferedImage bayer = copy(image);
+            new OrderedDithering(new RgbQuantizer(), 8, 4, false, 1.0).applyDither(bayer);
+
+            String[] labels = { "source", "Simple", "Bayer 8x8" };
+            BufferedImage[] images = { image, simple, bayer };
+
+            for (int i = 0; i < images.length; i++) {
+                BufferedImage input = images[i];
+                byte[][] encoded = new byte[2][];
+                BufferedImage[] decoded = new BufferedImage[1];
+
+                long pngWrite = bestOf(() -> encoded[0] = encode(input));
+                long pngRead = bestOf(() -> decode(encoded[0]));
+                long qoiWrite = bestOf(() -> encoded[1] = encodeQoi(qoi, input));
+                long qoiRead = bestOf(() -> decoded[0] = decodeQoi(qoi, encoded[1]));
+
+                boolean identical = Arrays.equals(pixels(input), pixels(decoded[0]));
+
+                System.out.printf("  %-40s %-9s PNG write %5d ms read %5d ms %8d KB  QOI write %5d ms read %5d ms "
+                        + "%8d KB  write %.1fx  read %.1fx  %s%n",
+                        file.getName(), labels[i], pngWrite, pngRead, encoded[0].length / 1024,
+                        qoiWrite, qoiRead, encoded[1].length / 1024,
+                        (double) pngWrite / Math.max(1, qoiWrite), (double) pngRead / Math.max(1, qoiRead),
+                        identical ? "identical" : "MISMATCH");
+            }
+        }
+    }
+
+    private static byte[] encodeQoi(QoiCodec qoi, BufferedImage image) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            qoi.write(image, out);
+
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static BufferedImage decodeQoi(QoiCodec qoi, byte[] data) {
+        try {
+            return qoi.read(new ByteArrayInputStream(data), 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Compares the ImageIO PNG writer with PngEncoder at several levels, on
+     * one thread and on every worker, and checks that each file decodes to
+     * the original pixels and that the thread count does not change it.
+     *
+     * @param image the image to encode
+     */
+    public static void pngEncoding(BufferedImage image) {
+        System.out.println("PNG encoding, " + megapixels(image) + " MP");
+
+        byte[][] encoded = new byte[1][];
+        long imageIoTime = bestOf(() -> encoded[0] = encode(image));
+
+        System.out.printf("  %-10s %6d ms  %8d KB%n", "ImageIO", imageIoTime, encoded[0].length / 1024);
+
+        int[] reference = pixels(image);
+
+        for (int level : new int[]{ 1, PngEncoder.DEFAULT_LEVEL, 6, 9 }) {
+            byte[][] output = new byte[2][];
+            long serialTime = bestOf(() -> output[0] = encode(image, new PngEncoder(level, 1)));
+            long parallelTime = bestOf(() -> output[1] = encode(image, new PngEncoder(level)));
+
+            boolean identical = Arrays.equals(output[0], output[1])
+                    && Arrays.equals(reference, pixels(decode(output[1])));
+
+            System.out.printf("  level %-4d %6d ms  %8d KB  %2d threads %6d ms  speedup %.2fx  %s%n",
+                    level, serialTime, output[0].length / 1024, WorkerPool.defaultThreads(), parallelTime,
+                    (double) serialTime / Math.max(1, parallelTime), identical ? "identical" : "MISMATCH");
+        }
+    }
+
+    private static byte[] encode(BufferedImage image, PngEncoder encoder) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            encoder.write(image, out);
+
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] encode(BufferedImage image) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ImageIO.write(image, "png", out);
+
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static BufferedImage decode(byte[] png) {
+        try {
+            return ImageIO.read(new ByteArrayInputStream(png));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static long bestOf(Runnable action) {
+        long best = Long.MAX_VALUE;
+
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            action.run();
+            best = Math.min(best, (System.nanoTime() - start) / 1_000_000);
+        }
+
+        return best;
+    }
+
+    private static BufferedImage syntheticImage(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Random random = new Random(42);
+
+        // Smooth gradients plus noise, so every kernel has real error to spread
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = (x * 255 / width + random.nextInt(16)) & 0xFF;
+                int g = (y * 255 / height + random.nextInt(16)) & 0xFF;
+                int b = ((x + y) * 255 / (width + height)) & 0xFF;
+
+                image.setRGB(x, y, (0xFF << 24) | (r << 16) | (g << 8) | b);
+            }
+        }
+
+        return image;
+    }
+
+    private static BufferedImage copy(BufferedImage image) {
+        BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+
+        copy.setRGB(0, 0, image.getWidth(), image.getHeight(), pixels(image), 0, image.getWidth());
+
+        return copy;
+    }
+
+    private static int[] pixels(BufferedImage image) {
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+
+    private static String megapixels(BufferedImage image) {
+        return String.format("%.1f", image.getWidth() * (double) image.getHeight() / 1_000_000);
+    }
+}
@@ -9,6 +9,12 @@ import javax.swing.*;
 
 public class Main {
     public static void main(String[] args) {
+        // Arguments run the command line mode, which never needs a display
+        if (args.length > 0) {
+            System.setProperty("java.awt.headless", "true");
+            System.exit(BatchRunner.run(args));
+        }
+
         SwingUtilities.invokeLater(() -> {
             DropDownWindow dropDownWindow = new DropDownWindow();
         });
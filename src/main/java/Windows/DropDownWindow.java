@@ -2,15 +2,21 @@ package Windows;
 
 import Dither.Util.TYPE;
 
+import Dither.BatchPipeline;
 import Dither.Operations;
+import Dither.Pipeline;
+import Dither.PipelineResult;
 
 import javax.swing.*;
 import javax.swing.plaf.basic.*;
 import java.awt.*;
 import java.awt.datatransfer.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.File;
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BooleanSupplier;
 import java.util.function.Consumer;
 
@@ -41,6 +47,16 @@ public class DropDownWindow {
     private TYPE operationType = TYPE.Simple;
     private final Font defaultFont = UIManager.getDefaults().getFont("Label.font");
 
+    // Images being read and dithered at once
+    private static final int PREFETCH_IMAGES = 2;
+
+    // Results waiting to be viewed, saves run in the background
+    private static final int MAX_PREVIEWS = 16;
+    private final PreviewQueue previews = new PreviewQueue(MAX_PREVIEWS);
+
+    // The last dropped file, rendered again on every settings change
+    private final LivePreview preview = new LivePreview();
+
     public DropDownWindow() {
         initFrame();
         initDropLabel();
@@ -53,7 +69,17 @@ public class DropDownWindow {
         frame = new JFrame("Image Color Quantization");
         
         frame.setResizable(false);
-        frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        frame.setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
+        
+        // Saves run in the background, let them finish before exiting
+        frame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                frame.dispose();
+                previews.finishSaves();
+                System.exit(0);
+            }
+        });
         frame.setLayout(new BorderLayout());
     }
 
@@ -68,6 +94,7 @@ public class DropDownWindow {
         dropLabel.setTransferHandler(createTransferHandler());
         
         frame.add(dropLabel, BorderLayout.CENTER);
+        frame.add(preview.getPanel(), BorderLayout.EAST);
     }
 
     private TransferHandler createTransferHandler() {
@@ -86,14 +113,16 @@ public class DropDownWindow {
                             .getTransferData(DataFlavor.javaFileListFlavor);
 
                     for (File file : files) {
-                        if (!file.getName().matches(".*\\.(png|jpg|jpeg)$")) {
-                            showError("Incorrect image format, use: png, jpg or jpeg");
+                        if (!file.getName().matches(".*\\.(png|jpg|jpeg|pam|ppm|pgm|qoi)$")) {
+                            showError("Incorrect image format, use: png, jpg, jpeg, pam, ppm, pgm or qoi");
                             
                             return false;
                         }
                     }
 
                     setLoadingState(true);
+                    preview.setFile(files.get(0));
+                    refreshPreview();
                     processFiles(files);
                     
                     return true;
@@ -107,6 +136,15 @@ public class DropDownWindow {
         };
     }
 
+    private void refreshPreview() {
+        int levels = colorLevels;
+        double spreadValue = spread;
+        boolean range = rangeQ, hsb = useHsb, gray = grayScale;
+        TYPE type = operationType;
+        
+        preview.update(scale, proxyScale -> new Pipeline(levels, proxyScale, spreadValue, range, hsb, type, gray));
+    }
+
     private void setLoadingState(boolean state) {
         loading = state;
         
@@ -138,7 +176,7 @@ public class DropDownWindow {
 
         SwingWorker<Void, Integer> worker = new SwingWorker<>() {
             @Override
-            protected Void doInBackground() {
+            protected Void doInBackground() throws InterruptedException {
                 Operations op = new Operations(
                         colorLevels,
                         scale,
@@ -149,11 +187,27 @@ public class DropDownWindow {
                         grayScale
                 );
                 
-                for (int i = 0; i < total; i++) {
-                    op.processFile(files.get(i).getPath());
+                // Files are read, dithered and queued for viewing without
+                // waiting for the user, one stage each keeps the drop order
+                BatchPipeline batch = new BatchPipeline(op.getPipeline(), 1, 1, 1, PREFETCH_IMAGES);
+                AtomicInteger shown = new AtomicInteger(1);
+                
+                batch.run(files.stream().map(File::getPath).toList(), new BatchPipeline.ResultHandler() {
+                    @Override
+                    public void handle(String filePath, PipelineResult result) throws InterruptedException {
+                        op.printTimes(result);
+                        previews.add(op.getPipeline(), filePath, result);
+                        
+                        publish(shown.incrementAndGet());
+                    }
                     
-                    publish(i + 2);
-                }
+                    @Override
+                    public void failed(String filePath, Exception error) {
+                        BatchPipeline.ResultHandler.super.failed(filePath, error);
+                        
+                        publish(shown.incrementAndGet());
+                    }
+                });
                 
                 return null;
             }
@@ -194,12 +248,12 @@ public class DropDownWindow {
 
     private void initControlPanel() {
         JPanel colorPanel = createSliderPanel("Color Levels:", minLevels, maxLevels, colorLevels,
-                val -> { colorLevels = val; }, val -> colorSlider.setValue(val));
+                val -> { colorLevels = val; refreshPreview(); }, val -> colorSlider.setValue(val));
         colorSlider = (JSlider) colorPanel.getComponent(0);
         colorField = (JTextField) ((JPanel) colorPanel.getComponent(1)).getComponent(0);
 
         JPanel scalePanel = createSliderPanel("Scale:", minScale, maxScale, scale,
-                val -> { scale = val; }, val -> scaleSlider.setValue(val));
+                val -> { scale = val; refreshPreview(); }, val -> scaleSlider.setValue(val));
         scaleSlider = (JSlider) scalePanel.getComponent(0);
         scaleField = (JTextField) ((JPanel) scalePanel.getComponent(1)).getComponent(0);
 
@@ -218,9 +272,9 @@ public class DropDownWindow {
         };
         
         List<Consumer<Boolean>> setters = List.of(
-                val -> grayScale = val,
-                val -> rangeQ = val,
-                val -> useHsb = val
+                val -> { grayScale = val; refreshPreview(); },
+                val -> { rangeQ = val; refreshPreview(); },
+                val -> { useHsb = val; refreshPreview(); }
         );
         
         configureToggleButtons(buttons, getters, setters);
@@ -319,6 +373,7 @@ public class DropDownWindow {
             if (!loading) {
                 spread = spreadSlider.getValue() * spreadStep;
                 spreadField.setText(String.format("%.2f", spread));
+                refreshPreview();
             }
         });
 
@@ -380,6 +435,7 @@ public class DropDownWindow {
         typeComboBox.addActionListener(e -> {
             if (!loading) {
                 operationType = (TYPE) typeComboBox.getSelectedItem();
+                refreshPreview();
             }
         });
         
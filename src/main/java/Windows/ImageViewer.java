@@ -3,6 +3,8 @@ package Windows;
 import Dither.Operations;
 import javax.swing.*;
 import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.awt.image.BufferedImage;
 
 public class ImageViewer extends JDialog {
@@ -11,8 +13,6 @@ public class ImageViewer extends JDialog {
     private final JButton saveButton;
     private final JButton goBackButton;
     
-    private final Operations operations;
-    
     private boolean goBack = false;
     
     private final int MIN_WIDTH = 500;
@@ -22,9 +22,33 @@ public class ImageViewer extends JDialog {
         return goBack;
     }
     
+    /**
+     * Shows the image in a modal window, returning once it is closed. Save
+     * writes it with the operations' parameters before closing.
+     *
+     * @param image the processed image
+     * @param filePath the file it was read from
+     * @param operations the operations that processed it
+     */
     public ImageViewer(BufferedImage image, String filePath, Operations operations) {
-        super((Frame) null, "Image Viewer", true);
-        this.operations = operations;
+        this(image, () -> operations.saveImage(image, filePath), null, true);
+    }
+    
+    /**
+     * Shows the image in a window that does not block the caller.
+     *
+     * @param image the processed image
+     * @param onSave run when Save is pressed, before the window closes; it
+     * runs on the event dispatch thread, so it should hand the work off
+     * @param onClose run on the event dispatch thread once the window is
+     * closed, whichever way
+     */
+    public ImageViewer(BufferedImage image, Runnable onSave, Runnable onClose) {
+        this(image, onSave, onClose, false);
+    }
+    
+    private ImageViewer(BufferedImage image, Runnable onSave, Runnable onClose, boolean modal) {
+        super((Frame) null, "Image Viewer", modal);
         
         panel = new ImagePanel(image);
         panel.setBackground(new Color(61, 56, 70));
@@ -39,7 +63,7 @@ public class ImageViewer extends JDialog {
         setButtonsVisuals(goBackButton);
         
         saveButton.addActionListener(e -> {
-            operations.saveImage(image, filePath);
+            onSave.run();
             goBack = true;
             dispose();
         });
@@ -49,6 +73,15 @@ public class ImageViewer extends JDialog {
             dispose();
         });
         
+        if (onClose != null) {
+            addWindowListener(new WindowAdapter() {
+                @Override
+                public void windowClosed(WindowEvent e) {
+                    onClose.run();
+                }
+            });
+        }
+        
         buttonPanel.add(saveButton);
         buttonPanel.add(goBackButton);
         
@@ -90,7 +123,7 @@ public class ImageViewer extends JDialog {
         setSize(finalWidth, finalHeight);
     }
     
-    class ImagePanel extends JPanel {
+    static class ImagePanel extends JPanel {
         private BufferedImage image;
         
         public ImagePanel(BufferedImage image) {
@@ -105,6 +138,11 @@ public class ImageViewer extends JDialog {
         @Override
         protected void paintComponent(Graphics g) {
             super.paintComponent(g);
+            
+            if (image == null) {
+                return;
+            }
+            
             double scaleX = (double) getWidth() / image.getWidth();
             double scaleY = (double) getHeight() / image.getHeight();
             
@@ -116,7 +154,12 @@ public class ImageViewer extends JDialog {
             int x = (getWidth() - newWidth) / 2;
             int y = (getHeight() - newHeight) / 2;
             
-            g.drawImage(image, x, y, newWidth, newHeight, this);
+            // Keep the pixels sharp, the image is shown at its reduced size
+            // and enlarged here
+            Graphics2D g2 = (Graphics2D) g;
+            g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+            
+            g2.drawImage(image, x, y, newWidth, newHeight, this);
         }
     }
 }
\ No newline at end of file
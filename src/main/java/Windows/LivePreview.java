@@ -0,0 +1,236 @@
+package Windows;
+
+import Dither.Pipeline;
+
+import FileManager.PamCodec;
+import FileManager.PngReader;
+import FileManager.QoiCodec;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+/**
+ * Shows the last dropped file dithered with the current settings, rendered
+ * again whenever they change.
+ *
+ * The file is decoded once into a proxy no larger than the panel, and every
+ * render dithers a copy of that proxy instead of reading the file again.
+ * Changes are debounced, so dragging a slider renders once it stops, and a
+ * render that became stale is cancelled: if it has not started yet it never
+ * runs, and if it has, its result is dropped.
+ */
+class LivePreview {
+    private static final int WIDTH = 400, HEIGHT = 300;
+    private static final int DEBOUNCE_MS = 120;
+
+    private final ImageViewer.ImagePanel panel = new ImageViewer.ImagePanel(null);
+
+    // A single thread, a render never competes with the next one
+    private final ExecutorService renderer = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "Preview renderer");
+        thread.setDaemon(true);
+
+        return thread;
+    });
+
+    private final Timer debounce;
+
+    // Only touched on the event dispatch thread
+    private BufferedImage proxy;
+    private int proxyFactor = 1;
+    private IntFunction<Pipeline> settings;
+    private int scale = 1;
+    private Future<?> loading, rendering;
+    private File file;
+
+    // Latest render, increased on the event dispatch thread and read by the
+    // renderer to skip stale work
+    private volatile int generation = 0;
+
+    LivePreview() {
+        panel.setBackground(new Color(61, 56, 70));
+        panel.setPreferredSize(new Dimension(WIDTH, HEIGHT));
+        panel.setVisible(false);
+
+        debounce = new Timer(DEBOUNCE_MS, e -> render());
+        debounce.setRepeats(false);
+    }
+
+    /**
+     * @return the panel the preview is drawn in, hidden until a file is set
+     */
+    ImageViewer.ImagePanel getPanel() {
+        return panel;
+    }
+
+    /**
+     * Makes the file the one being previewed. Its proxy is decoded in the
+     * background, then rendered with the latest settings.
+     *
+     * @param file the image file
+     */
+    void setFile(File file) {
+        this.file = file;
+        proxy = null;
+
+        if (loading != null) {
+            loading.cancel(false);
+        }
+
+        loading = renderer.submit(() -> {
+            try {
+                int factor = proxyFactor(file);
+                BufferedImage image = new PngReader().readPNG(file.getPath(), false, factor);
+
+                SwingUtilities.invokeLater(() -> {
+                    if (file != this.file || image == null) {
+                        return;
+                    }
+
+                    proxy = image;
+                    proxyFactor = factor;
+
+                    render();
+                });
+            } catch (IOException | RuntimeException | OutOfMemoryError e) {
+                System.err.println("Error when previewing image: " + file.getPath() + ": " + e.getMessage());
+
+                SwingUtilities.invokeLater(() -> {
+                    if (file == this.file) {
+                        hide();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Renders the preview again once the settings stop changing.
+     *
+     * @param scale the pixel size chosen by the user
+     * @param settings builds the pipeline with the other settings for a
+     * pixel size in proxy pixels
+     */
+    void update(int scale, IntFunction<Pipeline> settings) {
+        this.scale = scale;
+        this.settings = settings;
+
+        debounce.restart();
+    }
+
+    private void render() {
+        if (proxy == null || settings == null) {
+            return;
+        }
+
+        int current = ++generation;
+        BufferedImage source = proxy;
+        File previewed = file;
+        Pipeline pipeline = settings.apply(proxyScale());
+
+        if (rendering != null) {
+            rendering.cancel(false);
+        }
+
+        rendering = renderer.submit(() -> {
+            if (current != generation) {
+                return;
+            }
+
+            try {
+                // The proxy is left untouched, each render works on a copy
+                BufferedImage image = pipeline.process(source).getImage();
+
+                SwingUtilities.invokeLater(() -> {
+                    if (current == generation) {
+                        panel.updateImage(image);
+
+                        if (!panel.isVisible()) {
+                            panel.setVisible(true);
+                            SwingUtilities.getWindowAncestor(panel).pack();
+                        }
+                    }
+                });
+            } catch (RuntimeException | OutOfMemoryError e) {
+                System.err.println("Error when previewing image: " + previewed.getPath() + ": " + e.getMessage());
+
+                SwingUtilities.invokeLater(() -> {
+                    if (current == generation) {
+                        hide();
+                    }
+                });
+            }
+        });
+    }
+
+    // Drops the image of a preview that failed, so a stale one is not left
+    // on screen
+    private void hide() {
+        panel.updateImage(null);
+
+        if (panel.isVisible()) {
+            panel.setVisible(false);
+            SwingUtilities.getWindowAncestor(panel).pack();
+        }
+    }
+
+    // The user's pixel size in proxy pixels, at least one
+    private int proxyScale() {
+        return Math.max(1, (int) Math.round((double) scale / proxyFactor));
+    }
+
+    // Smallest subsampling that fits the image in the panel, read from the
+    // header only
+    private static int proxyFactor(File file) throws IOException {
+        Dimension size = imageSize(file);
+
+        if (size == null) {
+            return 1;
+        }
+
+        return Math.max(1, Math.max((size.width + WIDTH - 1) / WIDTH, (size.height + HEIGHT - 1) / HEIGHT));
+    }
+
+    // Null if no reader knows the format
+    private static Dimension imageSize(File file) throws IOException {
+        // ImageIO has no reader for the intermediates
+        if (PamCodec.isPam(file.toPath())) {
+            return PamCodec.size(file.toPath());
+        }
+
+        if (QoiCodec.isQoi(file.toPath())) {
+            return QoiCodec.size(file.toPath());
+        }
+
+        try (ImageInputStream stream = ImageIO.createImageInputStream(file)) {
+            Iterator<ImageReader> readers = stream != null ? ImageIO.getImageReaders(stream) : null;
+
+            if (readers == null || !readers.hasNext()) {
+                return null;
+            }
+
+            ImageReader reader = readers.next();
+
+            try {
+                reader.setInput(stream, true, true);
+
+                return new Dimension(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package Windows;
+
+import Dither.Pipeline;
+import Dither.PipelineResult;
+
+import FileManager.PngSaver;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import javax.swing.SwingUtilities;
+
+/**
+ * Processed images waiting to be looked at, shown one viewer at a time in
+ * the order they arrive. Processing never waits for the user: results are
+ * queued as they are ready, and saving happens on a background thread
+ * instead of the event dispatch thread.
+ *
+ * At most maxQueued results are held, viewer included, so a large drop does
+ * not keep every image in memory while the user goes through them.
+ */
+class PreviewQueue {
+    private final Deque<Preview> pending = new ArrayDeque<>();
+    private final Semaphore room;
+    private final ExecutorService saver = Executors.newSingleThreadExecutor(r -> new Thread(r, "Image saver"));
+    private final PngSaver pngSaver = new PngSaver();
+
+    // Only touched on the event dispatch thread
+    private boolean viewing = false;
+
+    PreviewQueue(int maxQueued) {
+        this.room = new Semaphore(maxQueued);
+    }
+
+    /**
+     * Queues a result for viewing, waiting for room if the queue is full.
+     * Called from the processing threads.
+     *
+     * @param pipeline the pipeline that processed the image, it names the
+     * saved file
+     * @param filePath the file the image was read from
+     * @param result the processed image
+     * @throws InterruptedException if interrupted while waiting for room
+     */
+    void add(Pipeline pipeline, String filePath, PipelineResult result) throws InterruptedException {
+        room.acquire();
+
+        SwingUtilities.invokeLater(() -> {
+            pending.add(new Preview(pipeline, filePath, result));
+
+            if (!viewing) {
+                showNext();
+            }
+        });
+    }
+
+    /**
+     * Waits for the saves already requested to be written, e.g. before the
+     * application exits.
+     */
+    void finishSaves() {
+        saver.shutdown();
+
+        try {
+            saver.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void showNext() {
+        Preview preview = pending.poll();
+        viewing = preview != null;
+
+        if (preview == null) {
+            return;
+        }
+
+        new ImageViewer(preview.result().getImage(),
+                () -> saver.execute(() -> preview.pipeline().save(preview.result(), preview.filePath(), pngSaver)),
+                () -> {
+                    room.release();
+                    showNext();
+                });
+    }
+
+    private record Preview(Pipeline pipeline, String filePath, PipelineResult result) { }
+}